@@ -17,14 +17,17 @@
  */
 package info3.automata.ast;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public abstract class Node {
 
-	static int idGenerator = 10;
+	// Files are parsed in parallel
+	static final AtomicInteger idGenerator = new AtomicInteger(10);
 
 	public int id; // a unique id used as a graph node for pretty printing the AST in dot format
 
 	public Node() {
-		this.id = idGenerator++;
+		this.id = idGenerator.getAndIncrement();
 	}
 
 	/**
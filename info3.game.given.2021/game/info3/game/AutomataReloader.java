@@ -0,0 +1,102 @@
+package info3.game;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import info3.automata.parser.TokenMgrError;
+import info3.game.automata.GAutomaton;
+
+/**
+ * Watches the folder of the .gal files, and reloads the automata of a file as
+ * soon as it is saved, without restarting the game.
+ * <p>
+ * Only the changed files are parsed again, on a background thread. Their
+ * automata replace the ones with the same name in {@link Game}, and entities
+ * bound to them restart from the initial state of the new automaton at their
+ * next tick. A file that doesn't parse is reported and the previous automata
+ * are kept.
+ */
+class AutomataReloader implements Runnable {
+	// Starts the reloader when set to true
+	public static final String PROPERTY = "patatruck.hotReload";
+
+	// Editors often write a file in several steps: events are gathered for this
+	// long before reloading
+	private static final long SETTLE_DELAY = 100; // ms
+
+	private final Game game;
+	private final Path folder;
+	private final WatchService watcher;
+
+	private AutomataReloader(Game game, Path folder) throws IOException {
+		this.game = game;
+		this.folder = folder;
+		watcher = FileSystems.getDefault().newWatchService();
+		folder.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+	}
+
+	static boolean isEnabled() {
+		return Boolean.getBoolean(PROPERTY);
+	}
+
+	/**
+	 * Starts watching this folder on a daemon thread
+	 */
+	static void start(Game game, String folder) {
+		try {
+			Thread thread = new Thread(new AutomataReloader(game, Path.of(folder)), "automata-reloader");
+			thread.setDaemon(true);
+			thread.start();
+			System.out.printf("watching %s for automata changes%n", folder);
+		} catch (IOException e) {
+			System.err.printf("Couldn't watch %s, automata won't be reloaded: %s%n", folder, e);
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				Set<Path> changed = new LinkedHashSet<>();
+				WatchKey key = watcher.take();
+				do {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() != StandardWatchEventKinds.OVERFLOW)
+							changed.add(folder.resolve((Path) event.context()));
+					}
+					key.reset();
+					Thread.sleep(SETTLE_DELAY);
+					key = watcher.poll();
+				} while (key != null);
+
+				for (Path file : changed) {
+					if (file.toString().endsWith(".gal") && Files.isRegularFile(file))
+						reload(file);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// Stops watching
+		}
+	}
+
+	private void reload(Path file) {
+		try {
+			List<GAutomaton> automata = Game.loadAutomataFile(file.toFile());
+			game.replaceAutomata(automata);
+			System.out.printf("reloaded automata from %s%n", file.getFileName());
+		} catch (Exception | TokenMgrError e) {
+			System.err.printf("error while reloading file \"%s\", the previous automata are kept%n", file);
+			e.printStackTrace();
+		}
+	}
+}
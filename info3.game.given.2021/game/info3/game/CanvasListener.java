@@ -24,6 +24,7 @@ import java.awt.Graphics;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import info3.game.graphics.GameCanvasListener;
 
@@ -46,16 +47,27 @@ public class CanvasListener implements GameCanvasListener {
 	private boolean spaceUsed = false, escapeUsed = false, enterUsed = false, gUsed = false;
 
 	public final HashSet<Integer> keyboard = new HashSet<>();
+	// Incremented each time isUp could answer differently
+	private final AtomicLong keyEpoch = new AtomicLong();
 
 	CanvasListener(Game game) {
 		this.game = game;
 	}
 
+	/**
+	 * @return A value that changes when a key is pressed or released, or when a
+	 *         key press is consumed by {@link #isUp}
+	 */
+	public long getKeyEpoch() {
+		return keyEpoch.get();
+	}
+
 	public boolean isUp(String name) {
 		switch (name) {
 		case "ENTER":
 			if (keyboard.contains(VK_ENTER) && !enterUsed) {
 				enterUsed = true;
+				keyEpoch.incrementAndGet();
 				return true;
 			} else {
 				return false;
@@ -97,6 +109,7 @@ public class CanvasListener implements GameCanvasListener {
 		case "G":
 			if (keyboard.contains(VK_G) && !gUsed) {
 				gUsed = true;
+				keyEpoch.incrementAndGet();
 				return true;
 			} else {
 				return false;
@@ -153,6 +166,8 @@ public class CanvasListener implements GameCanvasListener {
 		if (e.getKeyCode() == VK_G) {
 			gUsed = false;
 		}
+		// After the flags, so that a tick reading the new epoch sees them
+		keyEpoch.incrementAndGet();
 	}
 
 	@Override
@@ -170,6 +185,8 @@ public class CanvasListener implements GameCanvasListener {
 		if (e.getKeyCode() == VK_G) {
 			gUsed = false;
 		}
+		// After the flags, so that a tick reading the new epoch sees them
+		keyEpoch.incrementAndGet();
 	}
 
 	@Override
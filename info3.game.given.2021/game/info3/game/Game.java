@@ -29,7 +29,11 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -44,7 +48,10 @@ import javax.swing.JLabel;
 
 import info3.automata.ast.AST;
 import info3.automata.parser.AutomataParser;
+import info3.automata.parser.TokenMgrError;
+import info3.game.automata.AutomataCache;
 import info3.game.automata.AutomataGenerator;
+import info3.game.automata.AutomatonOptimizer;
 import info3.game.automata.GAutomaton;
 import info3.game.entity.EntityType;
 import info3.game.graphics.AwtGraphics;
@@ -67,6 +74,8 @@ public class Game {
 	 */
 	private static final int TPS = 40;
 
+	private static final AutomataCache AUTOMATA_CACHE = AutomataCache.fromProperty();
+
 	public static void main(String[] args) {
 		try {
 			System.out.println("Game starting...");
@@ -82,14 +91,25 @@ public class Game {
 	final GameCanvas canvas;
 	public final CanvasListener listener = new CanvasListener(this);
 
-	private final Map<String, GAutomaton> automataList; // can be moved
-	public Map<EntityType, GAutomaton> boundAutomata = new HashMap<>();
+	/**
+	 * The loaded automata and the ones bound to each entity type. Both are
+	 * replaced together, never modified once published.
+	 */
+	private static final class Automata {
+		final Map<String, GAutomaton> list;
+		final Map<EntityType, GAutomaton> bound;
 
-	public GAutomaton getBoundAutomaton(EntityType type) {
-		if (boundAutomata == null)
-			throw new RuntimeException("AutomatonSelectionScreen wasn't shown");
+		Automata(Map<String, GAutomaton> list, Map<EntityType, GAutomaton> bound) {
+			this.list = list;
+			this.bound = bound;
+		}
+	}
 
-		return boundAutomata.get(type);
+	// Written under the lock of the game
+	private volatile Automata automata;
+
+	public GAutomaton getBoundAutomaton(EntityType type) {
+		return automata.bound.get(type);
 	}
 
 	Screen screen;
@@ -102,7 +122,7 @@ public class Game {
 	Game() {
 		timerHasBeenSet = false;
 		highScore = loadHighScore();
-		automataList = loadAutomata("data");
+		Map<String, GAutomaton> automataList = loadAutomata("data");
 		canvas = new GameCanvas(listener);
 
 		System.out.println("  - creating frame...");
@@ -121,10 +141,14 @@ public class Game {
 			selection.put(type, allAutomata.indexOf(aut));
 		}
 
+		Map<EntityType, GAutomaton> boundAutomata = new HashMap<>();
 		for (Map.Entry<EntityType, Integer> entry : selection.entrySet()) {
 			boundAutomata.put(entry.getKey(), allAutomata.get(entry.getValue()));
 		}
+		automata = new Automata(automataList, boundAutomata);
 
+		if (AutomataReloader.isEnabled())
+			AutomataReloader.start(this, "data");
 	}
 
 	public Screen getScreen() {
@@ -140,7 +164,7 @@ public class Game {
 	}
 
 	public GAutomaton getAutomaton(String name) {
-		GAutomaton a = automataList.get(name);
+		GAutomaton a = automata.list.get(name);
 
 		if (a != null)
 			return a;
@@ -149,7 +173,34 @@ public class Game {
 	}
 
 	public Collection<GAutomaton> getAllAutomata() {
-		return automataList.values();
+		return automata.list.values();
+	}
+
+	/**
+	 * Binds the automata with these names to their entity type. They are looked
+	 * up by name, in case they were reloaded since they were chosen.
+	 */
+	public synchronized void bindAutomata(Map<EntityType, String> names) {
+		Map<EntityType, GAutomaton> newBound = new HashMap<>();
+		for (Map.Entry<EntityType, String> entry : names.entrySet())
+			newBound.put(entry.getKey(), getAutomaton(entry.getValue()));
+		automata = new Automata(automata.list, newBound);
+	}
+
+	/**
+	 * Replaces the automata with the same names, in the list and wherever they
+	 * are bound. Entities switch to the new automata at their next tick.
+	 */
+	synchronized void replaceAutomata(List<GAutomaton> replacements) {
+		Map<String, GAutomaton> newList = new TreeMap<>(automata.list);
+		for (GAutomaton automaton : replacements)
+			newList.put(automaton.name, automaton);
+
+		Map<EntityType, GAutomaton> newBound = new HashMap<>(automata.bound);
+		for (Map.Entry<EntityType, GAutomaton> entry : newBound.entrySet())
+			entry.setValue(newList.get(entry.getValue().name));
+
+		automata = new Automata(newList, newBound);
 	}
 
 	/*
@@ -256,6 +307,8 @@ public class Game {
 
 	AwtGraphics g = null;
 
+	private boolean firstFramePainted = false;
+
 	/*
 	 * This request is to paint the Game Canvas, using the given graphics. This is
 	 * called from the GameCanvasListener, called from the GameCanvas.
@@ -266,41 +319,69 @@ public class Game {
 
 			// paint
 			screen.render(g);
+
+			if (!firstFramePainted) {
+				firstFramePainted = true;
+				System.out.printf("first frame painted %d ms after the JVM started%n",
+						ManagementFactory.getRuntimeMXBean().getUptime());
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 			System.exit(0);
 		}
 	}
 
-	/* Generates automata list from .gal file */
+	/*
+	 * Generates automata list from .gal file. The files are parsed in parallel,
+	 * each by its own parser.
+	 */
 	Map<String, GAutomaton> loadAutomata(String filename) {
-		try {
-			Map<String, GAutomaton> automata = new TreeMap<>();
-			List<GAutomaton> automataTmp;
-			File folder = new File(filename);
-			for (File file : Objects.requireNonNull(folder.listFiles())) {
-				if (!file.isDirectory()) {
+		long start = System.nanoTime();
+		File folder = new File(filename);
+		List<List<GAutomaton>> loaded = Arrays.stream(Objects.requireNonNull(folder.listFiles()))
+				.filter(file -> !file.isDirectory()).parallel().map(file -> {
 					try {
-						AST ast = AutomataParser.from_file(file.getAbsolutePath());
-						AutomataGenerator astVisitor = new AutomataGenerator();
-						// noinspection unchecked
-						automataTmp = (List<GAutomaton>) ast.accept(astVisitor);
-
-						automata.putAll(
-								automataTmp.stream().collect(Collectors.toMap(a -> a.name, Function.identity())));
-
+						List<GAutomaton> automata = loadAutomataFile(file);
 						System.out.printf("successfully loaded automata from %s \n", file.getName());
-					} catch (Exception e) {
-						System.err.printf("error while loading file \"%s\"%n", file.getCanonicalFile());
+						return automata;
+					} catch (Exception | TokenMgrError e) {
+						System.err.printf("error while loading file \"%s\"%n", file.getAbsolutePath());
 						e.printStackTrace();
-						System.exit(1);
+						return null;
 					}
-				}
-			}
-			return automata;
-		} catch (Exception ex) {
-			throw new RuntimeException(ex);
+				}).collect(Collectors.toList());
+		if (loaded.contains(null))
+			System.exit(1);
+
+		// In the order of the files, like when they were loaded one by one
+		Map<String, GAutomaton> automata = new TreeMap<>();
+		for (List<GAutomaton> fileAutomata : loaded)
+			automata.putAll(fileAutomata.stream().collect(Collectors.toMap(a -> a.name, Function.identity())));
+		System.out.printf("loaded %d automata in %d ms%n", automata.size(), (System.nanoTime() - start) / 1000000);
+		return automata;
+	}
+
+	/**
+	 * @return The automata of this .gal file, compiled. They are read from the
+	 *         {@link AutomataCache} if the file didn't change since they were
+	 *         stored.
+	 */
+	static List<GAutomaton> loadAutomataFile(File file) throws Exception {
+		byte[] source = Files.readAllBytes(file.toPath());
+		byte[] hash = AutomataCache.hash(source);
+		List<GAutomaton> automata = AUTOMATA_CACHE == null ? null : AUTOMATA_CACHE.read(file.getName(), hash);
+		if (automata == null) {
+			AST ast = AutomataParser.from_string(new String(source, StandardCharsets.UTF_8));
+			AutomataGenerator astVisitor = new AutomataGenerator();
+			// noinspection unchecked
+			automata = (List<GAutomaton>) ast.accept(astVisitor);
+			for (GAutomaton automaton : automata)
+				System.out.println(AutomatonOptimizer.optimize(automaton));
+			if (AUTOMATA_CACHE != null)
+				AUTOMATA_CACHE.write(file.getName(), hash, automata);
 		}
+		automata.forEach(GAutomaton::compile);
+		return automata;
 	}
 
 	void timer(long elapsed) {
@@ -0,0 +1,75 @@
+package info3.game.automata;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * The weighted actions of a transition, one of which is drawn each time the
+ * transition is taken.
+ * <p>
+ * A percentage from 0 to 100 is drawn, and the first action whose cumulated
+ * weight reaches it is chosen. If the weights add up to less than the draw, no
+ * action is chosen and the transition isn't taken.
+ */
+public final class ActionTable {
+	private final IFunction[] actions;
+	private final int[] cumulativeWeights;
+
+	/**
+	 * @param weightedActions The actions and their percentage, in the order they
+	 *                        are cumulated
+	 */
+	public ActionTable(Map<IFunction, Integer> weightedActions) {
+		actions = new IFunction[weightedActions.size()];
+		cumulativeWeights = new int[weightedActions.size()];
+		int i = 0, sum = 0;
+		for (Map.Entry<IFunction, Integer> action : weightedActions.entrySet()) {
+			sum += action.getValue();
+			actions[i] = action.getKey();
+			cumulativeWeights[i] = sum;
+			i++;
+		}
+	}
+
+	public boolean isEmpty() {
+		return actions.length == 0;
+	}
+
+	public int size() {
+		return actions.length;
+	}
+
+	public IFunction getAction(int index) {
+		return actions[index];
+	}
+
+	public int getCumulativeWeight(int index) {
+		return cumulativeWeights[index];
+	}
+
+	/**
+	 * @return true if there are no actions, or if the drawn one succeeded
+	 */
+	public boolean fire(AutomatonListener aut, SplittableRandom random) {
+		if (actions.length == 0)
+			return true;
+		IFunction action = choose(random.nextInt(101));
+		return action != null && action.eval(aut);
+	}
+
+	/**
+	 * @return The first action whose cumulated weight is at least this
+	 *         percentage, or null
+	 */
+	IFunction choose(int drawnPercent) {
+		int low = 0, high = actions.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (cumulativeWeights[middle] >= drawnPercent)
+				high = middle;
+			else
+				low = middle + 1;
+		}
+		return low < actions.length ? actions[low] : null;
+	}
+}
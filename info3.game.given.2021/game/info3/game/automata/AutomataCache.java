@@ -0,0 +1,252 @@
+package info3.game.automata;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the automata of each .gal file on disk, so that a file that didn't
+ * change since the last run isn't parsed again.
+ * <p>
+ * There is one cache file per source file, starting with the SHA-256 of the
+ * source it was generated from: a file whose header doesn't match (other
+ * format or other source) is generated again and replaced. The automata are
+ * stored as their states, indexed in a table, and their transitions, with
+ * conditions as trees in prefix order and function calls as their name and
+ * parameters.
+ * <p>
+ * If the files can't be used, the automata are simply parsed.
+ */
+public final class AutomataCache {
+	// Directory where the automata are stored between runs, if set
+	public static final String PROPERTY = "patatruck.automataCache";
+
+	private static final int MAGIC = 0x50544147; // "PTAG"
+	// Bump when the encoding, the functions of GFunCall or the optimizations
+	// done before storing the automata change
+	private static final int FORMAT_VERSION = 3;
+
+	// Condition nodes
+	private static final byte CALL = 0;
+	private static final byte AND = 1;
+	private static final byte OR = 2;
+	private static final byte NOT = 3;
+
+	private final Path directory;
+
+	private AutomataCache(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @return The cache of the directory given by {@link #PROPERTY}, or null if
+	 *         it isn't set
+	 */
+	public static AutomataCache fromProperty() {
+		String directory = System.getProperty(PROPERTY);
+		return directory == null ? null : new AutomataCache(Path.of(directory));
+	}
+
+	public static byte[] hash(byte[] source) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(source);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @param sourceHash The {@link #hash} of the current content of the file
+	 * @return The automata stored for this source file, or null if they must be
+	 *         generated again
+	 */
+	public List<GAutomaton> read(String sourceName, byte[] sourceHash) {
+		Path file = cacheFile(sourceName);
+		if (!Files.isRegularFile(file))
+			return null;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			byte[] storedHash = new byte[sourceHash.length];
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+				return null;
+			in.readFully(storedHash);
+			if (!Arrays.equals(storedHash, sourceHash))
+				return null;
+			return readAutomata(in);
+		} catch (IOException | IllegalArgumentException e) {
+			System.err.printf("Couldn't read the cached automata %s, they will be parsed: %s%n", file, e);
+			return null;
+		}
+	}
+
+	public void write(String sourceName, byte[] sourceHash, List<GAutomaton> automata) {
+		Path file = cacheFile(sourceName);
+		try {
+			Files.createDirectories(directory);
+			// Written aside then moved, so that a file being read is never
+			// partially written
+			Path tmp = Files.createTempFile(directory, sourceName, ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.write(sourceHash);
+				writeAutomata(out, automata);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException | IllegalArgumentException e) {
+			System.err.printf("Couldn't store the automata of %s: %s%n", sourceName, e);
+		}
+	}
+
+	private Path cacheFile(String sourceName) {
+		return directory.resolve(sourceName + ".bin");
+	}
+
+	private static void writeAutomata(DataOutputStream out, List<GAutomaton> automata) throws IOException {
+		out.writeInt(automata.size());
+		for (GAutomaton automaton : automata) {
+			// States that are only targets of transitions are numbered too
+			Map<GState, Integer> indices = new IdentityHashMap<>();
+			List<GState> states = new ArrayList<>();
+			index(automaton.initial, indices, states);
+			for (GState state : automaton.states)
+				index(state, indices, states);
+			for (int s = 0; s < states.size(); s++) {
+				for (GTransition transition : states.get(s).transitions)
+					index(transition.destination, indices, states);
+			}
+
+			out.writeUTF(automaton.name);
+			out.writeInt(states.size());
+			for (GState state : states)
+				out.writeUTF(state.name);
+			out.writeInt(indices.get(automaton.initial));
+			out.writeInt(automaton.states.size());
+			for (GState state : automaton.states)
+				out.writeInt(indices.get(state));
+
+			for (GState state : states) {
+				out.writeInt(state.transitions.size());
+				for (GTransition transition : state.transitions) {
+					writeCondition(out, transition.condition);
+					out.writeInt(indices.get(transition.destination));
+					ActionTable actions = transition.actions;
+					out.writeInt(actions.size());
+					for (int i = 0; i < actions.size(); i++) {
+						int previous = i == 0 ? 0 : actions.getCumulativeWeight(i - 1);
+						writeCall(out, actions.getAction(i));
+						out.writeInt(actions.getCumulativeWeight(i) - previous);
+					}
+				}
+			}
+		}
+	}
+
+	private static void index(GState state, Map<GState, Integer> indices, List<GState> states) {
+		if (!indices.containsKey(state)) {
+			indices.put(state, states.size());
+			states.add(state);
+		}
+	}
+
+	private static void writeCondition(DataOutputStream out, IFunction condition) throws IOException {
+		if (condition instanceof AndCondition) {
+			out.writeByte(AND);
+			writeCondition(out, ((AndCondition) condition).left);
+			writeCondition(out, ((AndCondition) condition).right);
+		} else if (condition instanceof OrCondition) {
+			out.writeByte(OR);
+			writeCondition(out, ((OrCondition) condition).left);
+			writeCondition(out, ((OrCondition) condition).right);
+		} else if (condition instanceof NotCondition) {
+			out.writeByte(NOT);
+			writeCondition(out, ((NotCondition) condition).cond);
+		} else {
+			out.writeByte(CALL);
+			writeCall(out, condition);
+		}
+	}
+
+	private static void writeCall(DataOutputStream out, IFunction function) throws IOException {
+		if (!(function instanceof GFunCall))
+			throw new IllegalArgumentException("can't store function " + function);
+		GFunCall call = (GFunCall) function;
+		out.writeUTF(call.name());
+		List<Enum<?>> parameters = call.parameters();
+		out.writeByte(parameters.size());
+		for (Enum<?> parameter : parameters)
+			out.writeUTF(parameter.name());
+		out.writeInt(call.percent);
+	}
+
+	private static List<GAutomaton> readAutomata(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		List<GAutomaton> automata = new ArrayList<>(count);
+		for (int a = 0; a < count; a++) {
+			String name = in.readUTF();
+			GState[] states = new GState[in.readInt()];
+			for (int s = 0; s < states.length; s++)
+				states[s] = new GState(in.readUTF());
+			GState initial = states[in.readInt()];
+			int listed = in.readInt();
+			List<GState> stateList = new ArrayList<>(listed);
+			for (int s = 0; s < listed; s++)
+				stateList.add(states[in.readInt()]);
+
+			for (GState state : states) {
+				int transitions = in.readInt();
+				for (int t = 0; t < transitions; t++) {
+					IFunction condition = readCondition(in);
+					GState destination = states[in.readInt()];
+					int actionCount = in.readInt();
+					Map<IFunction, Integer> actions = new LinkedHashMap<>();
+					for (int i = 0; i < actionCount; i++) {
+						GFunCall action = readCall(in);
+						actions.put(action, in.readInt());
+					}
+					state.addTransition(new GTransition(actions, condition, destination));
+				}
+			}
+			automata.add(new GAutomaton(initial, name, stateList));
+		}
+		return automata;
+	}
+
+	private static IFunction readCondition(DataInputStream in) throws IOException {
+		byte node = in.readByte();
+		switch (node) {
+		case CALL:
+			return readCall(in);
+		case AND:
+			return new AndCondition(readCondition(in), readCondition(in));
+		case OR:
+			return new OrCondition(readCondition(in), readCondition(in));
+		case NOT:
+			return new NotCondition(readCondition(in));
+		default:
+			throw new IOException("invalid condition node " + node);
+		}
+	}
+
+	private static GFunCall readCall(DataInputStream in) throws IOException {
+		String name = in.readUTF();
+		int parameterCount = in.readByte();
+		List<String> parameters = new ArrayList<>(parameterCount);
+		for (int i = 0; i < parameterCount; i++)
+			parameters.add(in.readUTF());
+		return GFunCall.create(name, parameters, in.readInt());
+	}
+}
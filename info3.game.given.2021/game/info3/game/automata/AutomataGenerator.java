@@ -3,6 +3,7 @@ package info3.game.automata;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -90,7 +91,7 @@ public class AutomataGenerator implements IVisitor {
 		for (Object param : params) {
 			paramsList.add((String) param);
 		}
-		return new GFunCall(funcall.name, paramsList, funcall.percent);
+		return GFunCall.create(funcall.name, paramsList, funcall.percent);
 	}
 
 	// marche pas pr l'instant
@@ -163,7 +164,8 @@ public class AutomataGenerator implements IVisitor {
 	// si le pourcentage n'est pas donne, c'est qu'on a deja rentre ttes les actions
 	// en ayant
 	public Object exit(Action action, List<Object> funcalls) {
-		Map<IFunction, Integer> actionList = new HashMap<>();
+		// In source order, which is the order the percentages are cumulated in
+		Map<IFunction, Integer> actionList = new LinkedHashMap<>();
 		for (Object funcallTmp : funcalls) {
 			GFunCall funcall = (GFunCall) funcallTmp;
 			if (funcall.percent == -1) { // si le pourcentage n'est pas donne, on le calcule
@@ -0,0 +1,252 @@
+package info3.game.automata;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+
+import info3.automata.ast.AST;
+import info3.automata.parser.AutomataParser;
+import info3.game.position.AutCategory;
+import info3.game.position.AutDirection;
+import info3.game.position.AutKey;
+
+/**
+ * Compares the ways of stepping automata: the {@link GAutomaton#run} tree
+ * walker, the {@link CompiledAutomaton} interpreter and the class generated by
+ * {@link AutomatonClassGenerator}.
+ * <p>
+ * Run with {@code java info3.game.automata.AutomatonBenchmark [seconds] [files]}
+ * from the game directory, the files being all of {@code data/} by default. The
+ * listener answers conditions and actions from a pseudo random sequence, so
+ * that most of the measured time is spent in the automata.
+ */
+public class AutomatonBenchmark {
+	// Entities stepped by each round, spread over the states
+	private static final int ENTITIES = 256;
+
+	public static void main(String[] args) throws Exception {
+		double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 3;
+		List<File> files = new ArrayList<>();
+		if (args.length > 1) {
+			for (int i = 1; i < args.length; i++)
+				files.add(new File(args[i]));
+		} else {
+			for (File file : Objects.requireNonNull(new File("data").listFiles()))
+				files.add(file);
+		}
+
+		List<GAutomaton> automata = new ArrayList<>();
+		for (File file : files) {
+			AST ast = AutomataParser.from_file(file.getAbsolutePath());
+			@SuppressWarnings("unchecked")
+			List<GAutomaton> parsed = (List<GAutomaton>) ast.accept(new AutomataGenerator());
+			automata.addAll(parsed);
+		}
+		run(automata, seconds);
+	}
+
+	static void run(List<GAutomaton> automata, double seconds) {
+		List<CompiledAutomaton> interpreted = new ArrayList<>();
+		List<CompiledAutomaton> generated = new ArrayList<>();
+		for (GAutomaton automaton : automata) {
+			interpreted.add(CompiledAutomaton.compile(automaton, false));
+			CompiledAutomaton withCode = CompiledAutomaton.compile(automaton, true);
+			if (withCode.isGenerated())
+				generated.add(withCode);
+		}
+		if (generated.size() < automata.size())
+			System.out.println("Some automata couldn't be generated, they are left out");
+
+		System.out.printf("%d automata, %d entities each%n", automata.size(), ENTITIES);
+		measure("GAutomaton.run", seconds, new Engine() {
+			final GState[][] states = new GState[automata.size()][ENTITIES];
+
+			@Override
+			long round(Listener listener) {
+				long steps = 0;
+				for (int a = 0; a < automata.size(); a++) {
+					GAutomaton automaton = automata.get(a);
+					for (int e = 0; e < ENTITIES; e++) {
+						GState state = states[a][e] == null ? automaton.initial : states[a][e];
+						GState next = automaton.run(listener, listener.random, state);
+						states[a][e] = next == null ? state : next;
+						steps++;
+					}
+				}
+				return steps;
+			}
+		});
+		measure("interpreter", seconds, new CompiledEngine(interpreted));
+		if (!generated.isEmpty())
+			measure("generated classes", seconds, new CompiledEngine(generated));
+	}
+
+	private static void measure(String name, double seconds, Engine engine) {
+		Listener listener = new Listener();
+		// Lets the JIT compile the engine before measuring it
+		long warmupEnd = System.nanoTime() + (long) (seconds * 1e9 / 2);
+		while (System.nanoTime() < warmupEnd)
+			engine.round(listener);
+
+		long steps = 0;
+		long start = System.nanoTime();
+		long deadline = start + (long) (seconds * 1e9);
+		while (System.nanoTime() < deadline)
+			steps += engine.round(listener);
+		double elapsed = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%-20s %12.0f steps/s %8.1f ns/step (checksum %d)%n", name, steps / elapsed,
+				elapsed * 1e9 / steps, listener.calls);
+	}
+
+	private abstract static class Engine {
+		/**
+		 * @return The number of steps taken
+		 */
+		abstract long round(Listener listener);
+	}
+
+	private static final class CompiledEngine extends Engine {
+		final List<CompiledAutomaton> automata;
+		final int[][] states;
+
+		CompiledEngine(List<CompiledAutomaton> automata) {
+			this.automata = automata;
+			states = new int[automata.size()][ENTITIES];
+		}
+
+		@Override
+		long round(Listener listener) {
+			long steps = 0;
+			for (int a = 0; a < automata.size(); a++) {
+				CompiledAutomaton automaton = automata.get(a);
+				int[] entityStates = states[a];
+				for (int e = 0; e < ENTITIES; e++) {
+					int next = automaton.step(listener, listener.random, entityStates[e]);
+					if (next != CompiledAutomaton.NO_TRANSITION)
+						entityStates[e] = next;
+					steps++;
+				}
+			}
+			return steps;
+		}
+	}
+
+	/**
+	 * Answers everything from a xorshift sequence
+	 */
+	private static final class Listener implements AutomatonListener {
+		final SplittableRandom random = new SplittableRandom(42);
+		long answers = 0x9e3779b97f4a7c15L;
+		long calls = 0;
+
+		private boolean next() {
+			answers ^= answers << 13;
+			answers ^= answers >>> 7;
+			answers ^= answers << 17;
+			calls++;
+			return (answers & 1) != 0;
+		}
+
+		@Override
+		public boolean pop(AutDirection direction) {
+			return next();
+		}
+
+		@Override
+		public boolean wizz(AutDirection direction) {
+			return next();
+		}
+
+		@Override
+		public boolean move(AutDirection direction) {
+			return next();
+		}
+
+		@Override
+		public boolean gwait() {
+			return next();
+		}
+
+		@Override
+		public boolean egg(AutDirection direction) {
+			return next();
+		}
+
+		@Override
+		public boolean hit(AutDirection direction) {
+			return next();
+		}
+
+		@Override
+		public boolean jump(AutDirection direction) {
+			return next();
+		}
+
+		@Override
+		public boolean explode() {
+			return next();
+		}
+
+		@Override
+		public boolean pick(AutDirection direction) {
+			return next();
+		}
+
+		@Override
+		public boolean power() {
+			return next();
+		}
+
+		@Override
+		public boolean protect(AutDirection direction) {
+			return next();
+		}
+
+		@Override
+		public boolean store() {
+			return next();
+		}
+
+		@Override
+		public boolean turn(AutDirection direction) {
+			return next();
+		}
+
+		@Override
+		public boolean gthrow(AutDirection direction) {
+			return next();
+		}
+
+		@Override
+		public boolean cell(AutDirection direction, AutCategory category) {
+			return next();
+		}
+
+		@Override
+		public boolean key(AutKey key) {
+			return next();
+		}
+
+		@Override
+		public boolean myDir(AutDirection direction) {
+			return next();
+		}
+
+		@Override
+		public boolean closest(AutCategory category, AutDirection direction) {
+			return next();
+		}
+
+		@Override
+		public boolean gotPower() {
+			return next();
+		}
+
+		@Override
+		public boolean gotStuff() {
+			return next();
+		}
+	}
+}
@@ -0,0 +1,342 @@
+package info3.game.automata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Generates a JVM class running an automaton, so that the JIT can compile its
+ * transitions like hand written code.
+ * <p>
+ * Each state is a case of a {@code switch}, and each condition a boolean
+ * expression calling the {@link AutomatonListener} with constant parameters.
+ * Calls appearing several times in the conditions of a state are memoized in
+ * local variables, like the memo slots of {@link CompiledAutomaton}, unless the
+ * listener opts out.
+ * The source is compiled in memory with the system Java compiler and loaded by
+ * its own class loader, which can be collected with the automaton.
+ * <p>
+ * This needs a JDK: with a JRE, or if the compilation fails, {@link #generate}
+ * returns null and the automaton is interpreted.
+ */
+final class AutomatonClassGenerator {
+	// Generates a class for each automaton when set to true
+	public static final String PROPERTY = "patatruck.automataCodegen";
+
+	private static final String PACKAGE = "info3.game.automata.generated";
+	private static final AtomicInteger CLASS_COUNTER = new AtomicInteger();
+
+	private final StringBuilder source = new StringBuilder();
+	private final Map<GState, Integer> stateIndices;
+	// Functions that can't be inlined, called through an array
+	private final List<IFunction> calls = new ArrayList<>();
+	private final Map<IFunction, Integer> callIndices = new IdentityHashMap<>();
+	// Memo variables of the state being written, by signature of the call:
+	// 0 if not evaluated yet, 1 if true, -1 if false. Only read when the
+	// listener can memoize its conditions.
+	private final Map<String, String> memoVariables = new LinkedHashMap<>();
+
+	private AutomatonClassGenerator(Map<GState, Integer> stateIndices) {
+		this.stateIndices = stateIndices;
+	}
+
+	static boolean isEnabled() {
+		return Boolean.getBoolean(PROPERTY);
+	}
+
+	/**
+	 * @param states       The states, in the order of their index
+	 * @param randomStates The states chosen by a transition to "_", empty if
+	 *                     these transitions go to "_" itself
+	 * @return The generated stepper, or null if it couldn't be compiled
+	 */
+	static AutomatonStepper generate(String name, List<GState> states, Map<GState, Integer> stateIndices,
+			int[] randomStates) {
+		String className = "Automaton" + CLASS_COUNTER.incrementAndGet() + "_" + name.replaceAll("\\W", "_");
+		AutomatonClassGenerator generator = new AutomatonClassGenerator(stateIndices);
+		generator.writeClass(className, states, randomStates.length > 0);
+		try {
+			Class<?> generated = compile(PACKAGE + "." + className, generator.source.toString());
+			return (AutomatonStepper) generated.getConstructor(IFunction[].class, int[].class)
+					.newInstance(generator.calls.toArray(new IFunction[0]), randomStates);
+		} catch (ReflectiveOperationException | IllegalStateException | LinkageError e) {
+			System.err.printf("Couldn't generate code for automaton %s, it will be interpreted: %s%n", name, e);
+			return null;
+		}
+	}
+
+	private void writeClass(String className, List<GState> states, boolean hasRandomStates) {
+		source.append("package ").append(PACKAGE).append(";\n\n");
+		source.append("import java.util.SplittableRandom;\n\n");
+		source.append("import info3.game.automata.*;\n");
+		source.append("import info3.game.position.*;\n\n");
+		source.append("public final class ").append(className).append(" implements AutomatonStepper {\n");
+		source.append("\tprivate final IFunction[] calls;\n");
+		source.append("\tprivate final int[] randomStates;\n\n");
+		source.append("\tpublic ").append(className).append("(IFunction[] calls, int[] randomStates) {\n");
+		source.append("\t\tthis.calls = calls;\n");
+		source.append("\t\tthis.randomStates = randomStates;\n");
+		source.append("\t}\n\n");
+		writeStep(states, hasRandomStates);
+		source.append("\n");
+		writeSelectTransition(states);
+		source.append("\n");
+		writeStepFrom(states, hasRandomStates);
+		source.append("}\n");
+	}
+
+	private void writeStep(List<GState> states, boolean hasRandomStates) {
+		source.append("\t@Override\n");
+		source.append("\tpublic int step(AutomatonListener aut, SplittableRandom random, int state) {\n");
+		source.append("\t\tboolean memo = aut.canMemoizeConditions();\n");
+		source.append("\t\tswitch (state) {\n");
+		for (int s = 0; s < states.size(); s++) {
+			if (states.get(s).transitions.isEmpty())
+				continue;
+			source.append("\t\tcase ").append(s).append(": {\n");
+			declareMemoVariables(states.get(s));
+			for (GTransition transition : states.get(s).transitions)
+				writeTransition(transition, hasRandomStates, CompiledAutomaton.NO_TRANSITION);
+			source.append("\t\t\treturn ").append(CompiledAutomaton.NO_TRANSITION).append(";\n");
+			source.append("\t\t}\n");
+		}
+		writeDefault();
+	}
+
+	/**
+	 * Transitions are numbered in the order of the states, like the compiled
+	 * automaton does
+	 */
+	private void writeSelectTransition(List<GState> states) {
+		source.append("\t@Override\n");
+		source.append("\tpublic int selectTransition(AutomatonListener aut, int state) {\n");
+		source.append("\t\tboolean memo = aut.canMemoizeConditions();\n");
+		source.append("\t\tswitch (state) {\n");
+		int t = 0;
+		for (int s = 0; s < states.size(); s++) {
+			if (states.get(s).transitions.isEmpty())
+				continue;
+			source.append("\t\tcase ").append(s).append(": {\n");
+			declareMemoVariables(states.get(s));
+			for (GTransition transition : states.get(s).transitions) {
+				source.append("\t\t\tif (").append(condition(transition.condition)).append(")\n");
+				source.append("\t\t\t\treturn ").append(t++).append(";\n");
+			}
+			source.append("\t\t\treturn ").append(CompiledAutomaton.NO_TRANSITION).append(";\n");
+			source.append("\t\t}\n");
+		}
+		writeDefault();
+	}
+
+	/**
+	 * Enters the transitions of a state at the selected one, and falls through
+	 * the next ones. The conditions aren't memoized, since the selected action
+	 * runs first.
+	 */
+	private void writeStepFrom(List<GState> states, boolean hasRandomStates) {
+		source.append("\t@Override\n");
+		source.append("\tpublic int stepFrom(AutomatonListener aut, SplittableRandom random, int state,")
+				.append(" int transition) {\n");
+		source.append("\t\tswitch (transition) {\n");
+		memoVariables.clear();
+		int t = 0;
+		for (GState state : states) {
+			if (state.transitions.isEmpty())
+				continue;
+			for (GTransition transition : state.transitions) {
+				source.append("\t\tcase ").append(t).append(":\n");
+				writeTransition(transition, hasRandomStates, t++);
+			}
+			source.append("\t\t\treturn ").append(CompiledAutomaton.NO_TRANSITION).append(";\n");
+		}
+		writeDefault();
+	}
+
+	private void writeDefault() {
+		source.append("\t\tdefault:\n");
+		source.append("\t\t\treturn ").append(CompiledAutomaton.NO_TRANSITION).append(";\n");
+		source.append("\t\t}\n");
+		source.append("\t}\n");
+	}
+
+	/**
+	 * @param selected The transition being fired by stepFrom, which is taken
+	 *                 without evaluating its condition, or
+	 *                 {@link CompiledAutomaton#NO_TRANSITION}
+	 */
+	private void writeTransition(GTransition transition, boolean hasRandomStates, int selected) {
+		String target;
+		if (transition.destination.name.equals("_") && hasRandomStates)
+			target = "randomStates[random.nextInt(randomStates.length)]";
+		else
+			target = String.valueOf(stateIndices.get(transition.destination));
+
+		source.append("\t\t\tif (");
+		if (selected != CompiledAutomaton.NO_TRANSITION)
+			source.append("transition == ").append(selected).append(" || ");
+		source.append(condition(transition.condition)).append(") {\n");
+		ActionTable actions = transition.actions;
+		if (actions.isEmpty()) {
+			source.append("\t\t\t\treturn ").append(target).append(";\n");
+		} else {
+			// Same draw as ActionTable: the first action whose cumulated weight
+			// reaches it
+			source.append("\t\t\t\tint drawn = random.nextInt(101);\n");
+			source.append("\t\t\t\tif (");
+			for (int i = 0; i < actions.size(); i++) {
+				source.append("drawn <= ").append(actions.getCumulativeWeight(i)).append(" ? ")
+						.append(call(actions.getAction(i))).append(" : ");
+			}
+			source.append("false)\n");
+			source.append("\t\t\t\t\treturn ").append(target).append(";\n");
+			// The action ran and may have changed what the conditions see
+			if (!memoVariables.isEmpty())
+				source.append("\t\t\t\t").append(String.join(" = ", memoVariables.values())).append(" = 0;\n");
+		}
+		source.append("\t\t\t}\n");
+	}
+
+	/**
+	 * Declares a memo variable for each call appearing several times in the
+	 * conditions of this state
+	 */
+	private void declareMemoVariables(GState state) {
+		Map<String, Integer> occurrences = new LinkedHashMap<>();
+		for (GTransition transition : state.transitions)
+			countCalls(transition.condition, occurrences);
+
+		memoVariables.clear();
+		for (Map.Entry<String, Integer> occurrence : occurrences.entrySet()) {
+			if (occurrence.getValue() > 1) {
+				String variable = "m" + memoVariables.size();
+				memoVariables.put(occurrence.getKey(), variable);
+				source.append("\t\t\tint ").append(variable).append(" = 0;\n");
+			}
+		}
+	}
+
+	private static void countCalls(IFunction condition, Map<String, Integer> occurrences) {
+		if (condition instanceof AndCondition) {
+			countCalls(((AndCondition) condition).left, occurrences);
+			countCalls(((AndCondition) condition).right, occurrences);
+		} else if (condition instanceof OrCondition) {
+			countCalls(((OrCondition) condition).left, occurrences);
+			countCalls(((OrCondition) condition).right, occurrences);
+		} else if (condition instanceof NotCondition) {
+			countCalls(((NotCondition) condition).cond, occurrences);
+		} else if (condition instanceof GFunCall && !((GFunCall) condition).isTrue()) {
+			occurrences.merge(((GFunCall) condition).signature(), 1, Integer::sum);
+		}
+	}
+
+	private String condition(IFunction condition) {
+		if (condition instanceof AndCondition) {
+			AndCondition and = (AndCondition) condition;
+			return "(" + condition(and.left) + " && " + condition(and.right) + ")";
+		} else if (condition instanceof OrCondition) {
+			OrCondition or = (OrCondition) condition;
+			return "(" + condition(or.left) + " || " + condition(or.right) + ")";
+		} else if (condition instanceof NotCondition) {
+			return "!" + condition(((NotCondition) condition).cond);
+		} else if (condition instanceof GFunCall) {
+			String variable = memoVariables.get(((GFunCall) condition).signature());
+			if (variable != null)
+				return "(memo && " + variable + " != 0 ? " + variable + " > 0 : (" + variable + " = " + call(condition)
+						+ " ? 1 : -1) > 0)";
+		}
+		return call(condition);
+	}
+
+	/**
+	 * @return An expression calling the listener like this function does
+	 */
+	private String call(IFunction function) {
+		if (function instanceof GFunCall)
+			return ((GFunCall) function).source("aut");
+
+		// Other functions are evaluated through their object
+		Integer index = callIndices.get(function);
+		if (index == null) {
+			index = calls.size();
+			callIndices.put(function, index);
+			calls.add(function);
+		}
+		return "calls[" + index + "].eval(aut)";
+	}
+
+	/**
+	 * @throws IllegalStateException If there is no compiler, or the source
+	 *                               doesn't compile
+	 */
+	private static Class<?> compile(String className, String source) throws ClassNotFoundException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null)
+			throw new IllegalStateException("no Java compiler, the game is run by a JRE");
+
+		Map<String, ByteArrayOutputStream> classes = new HashMap<>();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+		StandardJavaFileManager standardManager = compiler.getStandardFileManager(diagnostics, null,
+				StandardCharsets.UTF_8);
+		JavaFileManager manager = new ForwardingJavaFileManager<>(standardManager) {
+			@Override
+			public JavaFileObject getJavaFileForOutput(Location location, String name, JavaFileObject.Kind kind,
+					FileObject sibling) {
+				return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension),
+						kind) {
+					@Override
+					public OutputStream openOutputStream() {
+						ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+						classes.put(name, bytes);
+						return bytes;
+					}
+				};
+			}
+		};
+		JavaFileObject file = new SimpleJavaFileObject(
+				URI.create("mem:///" + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension),
+				JavaFileObject.Kind.SOURCE) {
+			@Override
+			public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+				return source;
+			}
+		};
+
+		List<String> options = List.of("-classpath", System.getProperty("java.class.path"), "-nowarn");
+		if (!compiler.getTask(null, manager, diagnostics, options, null, List.of(file)).call()) {
+			StringBuilder errors = new StringBuilder();
+			for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics())
+				errors.append(diagnostic).append('\n');
+			throw new IllegalStateException("generated code doesn't compile:\n" + errors);
+		}
+
+		ClassLoader loader = new ClassLoader(AutomatonClassGenerator.class.getClassLoader()) {
+			@Override
+			protected Class<?> findClass(String name) throws ClassNotFoundException {
+				ByteArrayOutputStream bytes = classes.get(name);
+				if (bytes == null)
+					throw new ClassNotFoundException(name);
+				return defineClass(name, bytes.toByteArray(), 0, bytes.size());
+			}
+		};
+		return loader.loadClass(className);
+	}
+}
@@ -50,4 +50,13 @@ public interface AutomatonListener {
 
 	boolean gotStuff();
 
+	/**
+	 * @return false if a condition can change what the next ones answer, like a
+	 *         cell that turns the entity: every call is then evaluated each time
+	 *         the automaton reaches it
+	 */
+	default boolean canMemoizeConditions() {
+		return true;
+	}
+
 }
@@ -0,0 +1,214 @@
+package info3.game.automata;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes from a {@link GAutomaton} what can never change its behaviour, so
+ * that fewer conditions are evaluated at each step:
+ * <ul>
+ * <li>conditions are simplified: {@code !!c} is {@code c}, {@code True & c} is
+ * {@code c}, {@code True / c} is {@code True}, {@code c & c} is {@code c}...
+ * <li>transitions that can't be taken are dropped: the ones whose condition is
+ * always false, and the ones following a transition without actions whose
+ * condition is implied by theirs, which is always taken first
+ * <li>states that can't be reached from the initial state are dropped
+ * </ul>
+ * Only conditions made of pure calls (see {@link GFunCall#isPure}) are folded,
+ * dropped or used to drop others: not evaluating them doesn't change anything.
+ * Cell isn't pure, since some entities act on what they find. A transition
+ * with actions isn't considered as always taken, since its action can fail,
+ * and the transitions after it may see another world.
+ */
+public final class AutomatonOptimizer {
+	// Condition that is always false, only used while simplifying
+	private static final IFunction FALSE = aut -> false;
+
+	private int simplifiedConditions, droppedTransitions, droppedStates;
+
+	private AutomatonOptimizer() {
+	}
+
+	/**
+	 * Optimizes this automaton in place. It must be compiled again afterwards.
+	 *
+	 * @return A one line report of what was removed
+	 */
+	public static String optimize(GAutomaton automaton) {
+		AutomatonOptimizer optimizer = new AutomatonOptimizer();
+		int transitions = 0;
+		for (GState state : allStates(automaton))
+			transitions += state.transitions.size();
+
+		for (GState state : allStates(automaton))
+			optimizer.optimizeTransitions(state);
+		optimizer.dropUnreachableStates(automaton);
+
+		return String.format("%s: %d of %d transitions dropped, %d conditions simplified, %d states dropped",
+				automaton.name, optimizer.droppedTransitions, transitions, optimizer.simplifiedConditions,
+				optimizer.droppedStates);
+	}
+
+	private void optimizeTransitions(GState state) {
+		List<GTransition> kept = new ArrayList<>();
+		// Conjuncts of the conditions of the transitions without actions kept so
+		// far: a transition whose condition has all the conjuncts of one of them
+		// can't be taken
+		List<Set<String>> alwaysTaken = new ArrayList<>();
+		for (GTransition transition : state.transitions) {
+			IFunction condition = simplify(transition.condition);
+			if (condition == FALSE
+					|| GFunCall.isPureCondition(condition) && isShadowed(conjuncts(condition), alwaysTaken)) {
+				droppedTransitions++;
+				continue;
+			}
+			if (condition != transition.condition) {
+				simplifiedConditions++;
+				transition = new GTransition(transition.actions, condition, transition.destination);
+			}
+			if (transition.actions.isEmpty() && GFunCall.isPureCondition(condition)) {
+				alwaysTaken.add(conjuncts(condition));
+			} else {
+				// Its action or its condition may change what the next conditions see
+				alwaysTaken.clear();
+			}
+			kept.add(transition);
+		}
+		state.transitions.clear();
+		state.transitions.addAll(kept);
+	}
+
+	private static boolean isShadowed(Set<String> conjuncts, List<Set<String>> alwaysTaken) {
+		for (Set<String> earlier : alwaysTaken) {
+			if (conjuncts.containsAll(earlier))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return An equivalent condition, {@link #FALSE}, or this condition itself
+	 *         if it can't be simplified
+	 */
+	private static IFunction simplify(IFunction condition) {
+		if (condition instanceof AndCondition) {
+			AndCondition and = (AndCondition) condition;
+			IFunction left = simplify(and.left), right = simplify(and.right);
+			// The left operand is always evaluated, it can only be dropped if pure
+			if (left == FALSE || right == FALSE && GFunCall.isPureCondition(left))
+				return FALSE;
+			if (isTrue(left) || key(left).equals(key(right)) && GFunCall.isPureCondition(left))
+				return right;
+			if (right == FALSE)
+				return left == and.left ? condition : new AndCondition(left, and.right);
+			if (isTrue(right))
+				return left;
+			return left == and.left && right == and.right ? condition : new AndCondition(left, right);
+		} else if (condition instanceof OrCondition) {
+			OrCondition or = (OrCondition) condition;
+			IFunction left = simplify(or.left), right = simplify(or.right);
+			if (isTrue(left) || isTrue(right) && GFunCall.isPureCondition(left))
+				return isTrue(left) ? left : right;
+			if (left == FALSE || key(left).equals(key(right)) && GFunCall.isPureCondition(left))
+				return right;
+			if (right == FALSE)
+				return left;
+			return left == or.left && right == or.right ? condition : new OrCondition(left, right);
+		} else if (condition instanceof NotCondition) {
+			NotCondition not = (NotCondition) condition;
+			IFunction inner = simplify(not.cond);
+			if (inner instanceof NotCondition)
+				return ((NotCondition) inner).cond;
+			if (inner == FALSE)
+				return GFunCall.create("True", List.of(), -1);
+			if (isTrue(inner))
+				return FALSE;
+			return inner == not.cond ? condition : new NotCondition(inner);
+		}
+		return condition;
+	}
+
+	private static boolean isTrue(IFunction condition) {
+		return condition instanceof GFunCall && ((GFunCall) condition).isTrue();
+	}
+
+	/**
+	 * @return A string equal for two conditions with the same structure
+	 */
+	private static String key(IFunction condition) {
+		if (condition instanceof AndCondition)
+			return "(" + key(((AndCondition) condition).left) + " & " + key(((AndCondition) condition).right) + ")";
+		if (condition instanceof OrCondition)
+			return "(" + key(((OrCondition) condition).left) + " / " + key(((OrCondition) condition).right) + ")";
+		if (condition instanceof NotCondition)
+			return "!" + key(((NotCondition) condition).cond);
+		if (condition instanceof GFunCall)
+			return ((GFunCall) condition).signature();
+		// Other functions are only equal to themselves
+		return condition.getClass().getName() + "@" + System.identityHashCode(condition);
+	}
+
+	/**
+	 * @return The keys of the operands of the top level {@code &}, the condition
+	 *         being true when all of them are. True has none.
+	 */
+	private static Set<String> conjuncts(IFunction condition) {
+		Set<String> conjuncts = new HashSet<>();
+		addConjuncts(condition, conjuncts);
+		return conjuncts;
+	}
+
+	private static void addConjuncts(IFunction condition, Set<String> conjuncts) {
+		if (condition instanceof AndCondition) {
+			addConjuncts(((AndCondition) condition).left, conjuncts);
+			addConjuncts(((AndCondition) condition).right, conjuncts);
+		} else if (!isTrue(condition)) {
+			conjuncts.add(key(condition));
+		}
+	}
+
+	private void dropUnreachableStates(GAutomaton automaton) {
+		Set<GState> reached = Collections.newSetFromMap(new IdentityHashMap<>());
+		Deque<GState> pending = new ArrayDeque<>();
+		reached.add(automaton.initial);
+		pending.add(automaton.initial);
+		while (!pending.isEmpty()) {
+			for (GTransition transition : pending.poll().transitions) {
+				if (transition.destination.name.equals("_")) {
+					// Any state can be drawn
+					return;
+				}
+				if (reached.add(transition.destination))
+					pending.add(transition.destination);
+			}
+		}
+
+		int before = automaton.states.size();
+		automaton.states.removeIf(state -> !reached.contains(state));
+		droppedStates = before - automaton.states.size();
+	}
+
+	/**
+	 * @return The listed states and the ones that are only targets
+	 */
+	private static Set<GState> allStates(GAutomaton automaton) {
+		Set<GState> states = Collections.newSetFromMap(new IdentityHashMap<>());
+		Deque<GState> pending = new ArrayDeque<>();
+		pending.add(automaton.initial);
+		pending.addAll(automaton.states);
+		while (!pending.isEmpty()) {
+			GState state = pending.poll();
+			if (states.add(state)) {
+				for (GTransition transition : state.transitions)
+					pending.add(transition.destination);
+			}
+		}
+		return states;
+	}
+}
@@ -0,0 +1,33 @@
+package info3.game.automata;
+
+import java.util.SplittableRandom;
+
+/**
+ * Takes one step of an automaton whose states are numbered, as done by
+ * {@link CompiledAutomaton}.
+ */
+public interface AutomatonStepper {
+	/**
+	 * @param random Draws the weighted actions and the random states
+	 * @return The new state, or {@link CompiledAutomaton#NO_TRANSITION} if no
+	 *         transition was taken
+	 */
+	int step(AutomatonListener aut, SplittableRandom random, int state);
+
+	/**
+	 * Evaluates the conditions of this state, without firing any action.
+	 *
+	 * @return The first transition whose condition holds, numbered like in
+	 *         {@link CompiledAutomaton}, or
+	 *         {@link CompiledAutomaton#NO_TRANSITION}
+	 */
+	int selectTransition(AutomatonListener aut, int state);
+
+	/**
+	 * Fires a transition chosen by {@link #selectTransition}. If its action
+	 * fails, the next transitions are tried like {@link #step} does.
+	 *
+	 * @return The new state, or {@link CompiledAutomaton#NO_TRANSITION}
+	 */
+	int stepFrom(AutomatonListener aut, SplittableRandom random, int state, int transition);
+}
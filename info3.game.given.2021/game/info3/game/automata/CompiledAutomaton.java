@@ -0,0 +1,396 @@
+package info3.game.automata;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * A {@link GAutomaton} lowered into flat arrays, to step entities without
+ * walking lists and condition trees.
+ * <p>
+ * States are numbered from 0, the initial state being 0. The transitions of
+ * state {@code s} are {@code firstTransition[s]} to
+ * {@code firstTransition[s + 1] - 1}, in source order. Each condition is a
+ * sequence of instructions in {@link #code} working on a single boolean
+ * register, with jumps keeping the short-circuit of {@code &} and {@code /}.
+ * An instruction is an opcode in the low byte and an operand above it.
+ * <p>
+ * Calls with the same function and parameters share a leaf, and each leaf used
+ * by a state gets a memo slot in that state: a leaf is evaluated at most once
+ * per step, until an action runs and may change its result. Listeners whose
+ * conditions change what the next ones answer opt out, see
+ * {@link AutomatonListener#canMemoizeConditions}.
+ * <p>
+ * When {@link AutomatonClassGenerator#PROPERTY} is set, a class is also
+ * generated for the automaton and steps it instead of the interpreter.
+ * <p>
+ * A compiled automaton is immutable and can be shared by any number of
+ * entities.
+ */
+public final class CompiledAutomaton implements AutomatonStepper {
+	// register = true
+	static final int OP_TRUE = 0;
+	// register = leaves[operand].eval()
+	static final int OP_CALL = 1;
+	// register = !register
+	static final int OP_NOT = 2;
+	// if (!register) pc = operand
+	static final int OP_JUMP_IF_FALSE = 3;
+	// if (register) pc = operand
+	static final int OP_JUMP_IF_TRUE = 4;
+	// return register
+	static final int OP_RETURN = 5;
+
+	// The operand of OP_CALL is the leaf, followed by its memo slot
+	static final int MEMO_SLOT_BITS = 5;
+	// Leaves of a state past this count aren't memoized
+	static final int MEMO_SLOTS = (1 << MEMO_SLOT_BITS) - 1;
+	private static final int NO_MEMO_SLOT = MEMO_SLOTS;
+	// The memo of a step is a long: bit s tells if the leaf of slot s was
+	// evaluated, bit MEMO_VALUES + s holds its result
+	private static final int MEMO_VALUES = 32;
+	// Set in the memo returned by evalCondition if the condition holds
+	private static final long RESULT_BIT = 1L << MEMO_SLOTS;
+	// Set in the memo of a listener that can't memoize its conditions, so that
+	// every leaf is evaluated
+	private static final long MEMO_OFF = 1L << (MEMO_VALUES + NO_MEMO_SLOT);
+
+	private static final int OPERAND_SHIFT = 8;
+	private static final int OPCODE_MASK = (1 << OPERAND_SHIFT) - 1;
+
+	// Destination of transitions going to a random state
+	static final int RANDOM_STATE = -2;
+	// Returned by step when no transition was taken
+	public static final int NO_TRANSITION = -1;
+
+	// What the conditions of a state depend on: when none of them holds, they
+	// can only change once one of these inputs changes
+	public static final int WAKE_ON_KEY = 1;
+	// Positions, directions and categories of the entities
+	public static final int WAKE_ON_OCCUPANCY = 2;
+	// Some condition depends on something else, like the stock of a table
+	public static final int NEVER_SLEEP = 4;
+	// Entities in the cells of the scene that cell probed
+	public static final int WAKE_ON_PROBED_CELLS = 8;
+
+	public final String name;
+	private final String[] stateNames;
+	private final int[] firstTransition;
+	private final int[] wakeDependencies;
+
+	// Per transition
+	private final int[] conditionStart;
+	private final int[] destination;
+	private final ActionTable[] actionTables;
+
+	private final int[] code;
+	private final IFunction[] leaves;
+
+	// States chosen by a transition to "_"
+	private final int[] randomStates;
+
+	// Null when interpreted
+	private final AutomatonStepper generated;
+
+	private CompiledAutomaton(Builder builder, boolean generateCode) {
+		name = builder.name;
+		stateNames = builder.stateNames.toArray(new String[0]);
+		firstTransition = toArray(builder.firstTransition);
+		wakeDependencies = toArray(builder.wakeDependencies);
+		conditionStart = toArray(builder.conditionStart);
+		destination = toArray(builder.destination);
+		actionTables = builder.actionTables.toArray(new ActionTable[0]);
+		code = toArray(builder.code);
+		leaves = builder.leaves.toArray(new IFunction[0]);
+		randomStates = toArray(builder.randomStates);
+		generated = generateCode ? AutomatonClassGenerator.generate(name, builder.states, builder.stateIndices,
+				randomStates) : null;
+	}
+
+	public static CompiledAutomaton compile(GAutomaton automaton) {
+		return compile(automaton, AutomatonClassGenerator.isEnabled());
+	}
+
+	static CompiledAutomaton compile(GAutomaton automaton, boolean generateCode) {
+		return new Builder(automaton).build(generateCode);
+	}
+
+	/**
+	 * @return true if this automaton is stepped by a generated class
+	 */
+	public boolean isGenerated() {
+		return generated != null;
+	}
+
+	public int getInitialState() {
+		return 0;
+	}
+
+	public int getStateCount() {
+		return stateNames.length;
+	}
+
+	public String getStateName(int state) {
+		return stateNames[state];
+	}
+
+	/**
+	 * @return The inputs of the conditions of this state, as WAKE_ON_ flags, or
+	 *         {@link #NEVER_SLEEP}
+	 */
+	public int getWakeDependencies(int state) {
+		return wakeDependencies[state];
+	}
+
+	/**
+	 * Takes the first transition of this state whose condition holds and whose
+	 * action succeeds, like {@link GAutomaton#run}.
+	 *
+	 * @return The new state, or {@link #NO_TRANSITION}
+	 */
+	@Override
+	public int step(AutomatonListener aut, SplittableRandom random, int state) {
+		if (generated != null)
+			return generated.step(aut, random, state);
+		return interpret(aut, random, state);
+	}
+
+	int interpret(AutomatonListener aut, SplittableRandom random, int state) {
+		long emptyMemo = emptyMemo(aut), memo = emptyMemo;
+		for (int t = firstTransition[state]; t < firstTransition[state + 1]; t++) {
+			memo = evalCondition(aut, conditionStart[t], memo);
+			if ((memo & RESULT_BIT) != 0) {
+				if (actionTables[t].fire(aut, random))
+					return destination(random, t);
+				// The action ran and may have changed what the conditions see
+				memo = emptyMemo;
+			}
+		}
+		return NO_TRANSITION;
+	}
+
+	private int destination(SplittableRandom random, int transition) {
+		int target = destination[transition];
+		return target == RANDOM_STATE ? randomStates[random.nextInt(randomStates.length)] : target;
+	}
+
+	/**
+	 * Evaluates the conditions of this state, without firing any action.
+	 *
+	 * @return The first transition whose condition holds, to give to
+	 *         {@link #stepFrom}, or {@link #NO_TRANSITION}
+	 */
+	@Override
+	public int selectTransition(AutomatonListener aut, int state) {
+		if (generated != null)
+			return generated.selectTransition(aut, state);
+		long memo = emptyMemo(aut);
+		for (int t = firstTransition[state]; t < firstTransition[state + 1]; t++) {
+			memo = evalCondition(aut, conditionStart[t], memo);
+			if ((memo & RESULT_BIT) != 0)
+				return t;
+		}
+		return NO_TRANSITION;
+	}
+
+	/**
+	 * Fires a transition chosen by {@link #selectTransition}. If its action
+	 * fails, the next transitions are tried like {@link #step} does.
+	 *
+	 * @return The new state, or {@link #NO_TRANSITION}
+	 */
+	@Override
+	public int stepFrom(AutomatonListener aut, SplittableRandom random, int state, int transition) {
+		if (transition == NO_TRANSITION)
+			return NO_TRANSITION;
+		if (generated != null)
+			return generated.stepFrom(aut, random, state, transition);
+		if (actionTables[transition].fire(aut, random))
+			return destination(random, transition);
+		long emptyMemo = emptyMemo(aut), memo = emptyMemo;
+		for (int t = transition + 1; t < firstTransition[state + 1]; t++) {
+			memo = evalCondition(aut, conditionStart[t], memo);
+			if ((memo & RESULT_BIT) != 0) {
+				if (actionTables[t].fire(aut, random))
+					return destination(random, t);
+				// The action ran and may have changed what the conditions see
+				memo = emptyMemo;
+			}
+		}
+		return NO_TRANSITION;
+	}
+
+	private static long emptyMemo(AutomatonListener aut) {
+		return aut.canMemoizeConditions() ? 0 : MEMO_OFF;
+	}
+
+	/**
+	 * @param memo The leaves already evaluated during this step
+	 * @return The memo completed with the leaves evaluated by this condition,
+	 *         with {@link #RESULT_BIT} set if it holds
+	 */
+	private long evalCondition(AutomatonListener aut, int pc, long memo) {
+		memo &= ~RESULT_BIT;
+		boolean register = false;
+		while (true) {
+			int instruction = code[pc++];
+			switch (instruction & OPCODE_MASK) {
+			case OP_TRUE:
+				register = true;
+				break;
+			case OP_CALL:
+				int operand = instruction >>> OPERAND_SHIFT;
+				int slot = operand & MEMO_SLOTS;
+				if (slot == NO_MEMO_SLOT || (memo & MEMO_OFF) != 0) {
+					register = leaves[operand >>> MEMO_SLOT_BITS].eval(aut);
+				} else if ((memo & 1L << slot) != 0) {
+					register = (memo & 1L << (MEMO_VALUES + slot)) != 0;
+				} else {
+					register = leaves[operand >>> MEMO_SLOT_BITS].eval(aut);
+					memo |= 1L << slot | (register ? 1L << (MEMO_VALUES + slot) : 0);
+				}
+				break;
+			case OP_NOT:
+				register = !register;
+				break;
+			case OP_JUMP_IF_FALSE:
+				if (!register)
+					pc = instruction >>> OPERAND_SHIFT;
+				break;
+			case OP_JUMP_IF_TRUE:
+				if (register)
+					pc = instruction >>> OPERAND_SHIFT;
+				break;
+			case OP_RETURN:
+				return register ? memo | RESULT_BIT : memo;
+			default:
+				throw new IllegalStateException("invalid instruction " + instruction);
+			}
+		}
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = list.get(i);
+		return array;
+	}
+
+	private static final class Builder {
+		final String name;
+		final Map<GState, Integer> stateIndices = new IdentityHashMap<>();
+		final List<GState> states = new ArrayList<>();
+		final List<String> stateNames = new ArrayList<>();
+		final List<Integer> firstTransition = new ArrayList<>();
+		final List<Integer> wakeDependencies = new ArrayList<>();
+		// Dependencies of the state being built
+		int dependencies;
+		final List<Integer> conditionStart = new ArrayList<>();
+		final List<Integer> destination = new ArrayList<>();
+		final List<ActionTable> actionTables = new ArrayList<>();
+		final List<Integer> code = new ArrayList<>();
+		final List<IFunction> leaves = new ArrayList<>();
+		// Calls are keyed by their signature, other functions by themselves
+		final Map<Object, Integer> leafIndices = new HashMap<>();
+		// Memo slots of the leaves used by the state being built
+		final Map<Integer, Integer> memoSlots = new HashMap<>();
+		final List<Integer> randomStates = new ArrayList<>();
+
+		Builder(GAutomaton automaton) {
+			name = automaton.name;
+			indexOf(automaton.initial);
+			for (GState state : automaton.states) {
+				indexOf(state);
+				if (!state.name.equals("_"))
+					randomStates.add(stateIndices.get(state));
+			}
+		}
+
+		/**
+		 * States that are only targets of transitions get an index too, without
+		 * any transition
+		 */
+		int indexOf(GState state) {
+			Integer index = stateIndices.get(state);
+			if (index == null) {
+				index = states.size();
+				stateIndices.put(state, index);
+				states.add(state);
+				stateNames.add(state.name);
+			}
+			return index;
+		}
+
+		CompiledAutomaton build(boolean generateCode) {
+			// The list grows while it is walked, with the states found as targets
+			for (int s = 0; s < states.size(); s++) {
+				firstTransition.add(destination.size());
+				dependencies = 0;
+				memoSlots.clear();
+				for (GTransition transition : states.get(s).transitions)
+					addTransition(transition);
+				wakeDependencies.add(dependencies);
+			}
+			firstTransition.add(destination.size());
+			return new CompiledAutomaton(this, generateCode);
+		}
+
+		void addTransition(GTransition transition) {
+			conditionStart.add(code.size());
+			emit(transition.condition);
+			code.add(OP_RETURN);
+
+			if (transition.destination.name.equals("_") && !randomStates.isEmpty())
+				destination.add(RANDOM_STATE);
+			else
+				destination.add(indexOf(transition.destination));
+			actionTables.add(transition.actions);
+		}
+
+		void emit(IFunction condition) {
+			if (condition instanceof AndCondition) {
+				AndCondition and = (AndCondition) condition;
+				emit(and.left);
+				int jump = code.size();
+				code.add(OP_JUMP_IF_FALSE);
+				emit(and.right);
+				patch(jump);
+			} else if (condition instanceof OrCondition) {
+				OrCondition or = (OrCondition) condition;
+				emit(or.left);
+				int jump = code.size();
+				code.add(OP_JUMP_IF_TRUE);
+				emit(or.right);
+				patch(jump);
+			} else if (condition instanceof NotCondition) {
+				emit(((NotCondition) condition).cond);
+				code.add(OP_NOT);
+			} else if (condition instanceof GFunCall && ((GFunCall) condition).isTrue()) {
+				code.add(OP_TRUE);
+			} else {
+				dependencies |= condition instanceof GFunCall ? ((GFunCall) condition).wakeDependencies()
+						: NEVER_SLEEP;
+				Object key = condition instanceof GFunCall ? ((GFunCall) condition).signature() : condition;
+				Integer leaf = leafIndices.get(key);
+				if (leaf == null) {
+					leaf = leaves.size();
+					leafIndices.put(key, leaf);
+					leaves.add(condition);
+				}
+				int slot = memoSlots.computeIfAbsent(leaf,
+						l -> memoSlots.size() < MEMO_SLOTS ? memoSlots.size() : NO_MEMO_SLOT);
+				code.add(OP_CALL | (leaf << MEMO_SLOT_BITS | slot) << OPERAND_SHIFT);
+			}
+		}
+
+		/**
+		 * Makes the jump at this position go to the next instruction
+		 */
+		void patch(int jump) {
+			code.set(jump, code.get(jump) | code.size() << OPERAND_SHIFT);
+		}
+	}
+}
@@ -1,12 +1,17 @@
 package info3.game.automata;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 public class GAutomaton {
 	public GState initial;
 	public final String name;
 	public final List<GState> states;
+	// Read by every entity at each tick
+	private volatile CompiledAutomaton compiled;
+	// States drawn by transitions to "_", rebuilt when the states change
+	private List<GState> randomStates;
 
 	public GAutomaton(GState initial, String name, List<GState> states) {
 		this.initial = initial;
@@ -16,21 +21,56 @@ public class GAutomaton {
 
 	public void addState(GState gState) {
 		this.states.add(gState);
+		randomStates = null;
 	}
 
-	public GState run(AutomatonListener aut, GState currentState) {
-		GState state = currentState.checkTransitions(aut);
-		if (state != null && state.name.equals("_"))
-			state = getRandomState();
-		return state;
+	/**
+	 * Lowers this automaton into the form run by the entities. It must be called
+	 * again if the states or transitions change.
+	 */
+	public synchronized CompiledAutomaton compile() {
+		randomStates = null;
+		compiled = CompiledAutomaton.compile(this);
+		return compiled;
+	}
+
+	public CompiledAutomaton getCompiled() {
+		CompiledAutomaton compiled = this.compiled;
+		if (compiled != null)
+			return compiled;
+		synchronized (this) {
+			if (this.compiled == null)
+				this.compiled = CompiledAutomaton.compile(this);
+			return this.compiled;
+		}
 	}
 
-	private GState getRandomState() {
-		GState state;
-		do {
-			Random rand = new Random();
-			state = states.get(rand.nextInt(states.size()));
-		} while (state.name.equals("_"));
+	public GState run(AutomatonListener aut, SplittableRandom random, GState currentState) {
+		GState state = currentState.checkTransitions(aut, random);
+		if (state != null && state.name.equals("_")) {
+			GState randomState = getRandomState(random);
+			if (randomState != null)
+				state = randomState;
+		}
 		return state;
 	}
+
+	/**
+	 * @return One of the states other than "_", or null if there are none
+	 */
+	private GState getRandomState(SplittableRandom random) {
+		List<GState> randomStates = this.randomStates;
+		if (randomStates == null) {
+			randomStates = new ArrayList<>();
+			for (GState state : states) {
+				if (!state.name.equals("_"))
+					randomStates.add(state);
+			}
+			this.randomStates = randomStates;
+		}
+		if (randomStates.isEmpty())
+			return null;
+		// A single draw, like CompiledAutomaton
+		return randomStates.get(random.nextInt(randomStates.size()));
+	}
 }
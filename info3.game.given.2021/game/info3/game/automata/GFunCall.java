@@ -6,91 +6,95 @@ import info3.game.position.AutCategory;
 import info3.game.position.AutDirection;
 import info3.game.position.AutKey;
 
-public class GFunCall implements IFunction {
-	private enum FunName {
-		// Actions
-		POP, WIZZ, MOVE, WAIT, EGG, HIT, JUMP, EXPLODE, PICK, POWER, PROTECT, STORE, TURN, THROW,
-		// Conditions
-		CELL, KEY, TRUE, MYDIR, CLOSEST, GOTPOWER, GOTSTUFF
-	}
-
-	final List<String> params;
+/**
+ * A call to an action or a condition of the {@link AutomatonListener}.
+ * <p>
+ * The parameters are resolved by {@link #create} when the automaton is loaded,
+ * into one subclass per function holding them as enum values, so evaluating a
+ * call doesn't touch any string.
+ */
+public abstract class GFunCall implements IFunction {
 	int percent;
-	private FunName name;
 
-	public GFunCall(String n, List<String> paramsList, int p) {
-		switch (n) {
+	GFunCall(int percent) {
+		this.percent = percent;
+	}
+
+	/**
+	 * @throws IllegalArgumentException If the function doesn't exist, or its
+	 *                                  parameters are invalid
+	 */
+	public static GFunCall create(String name, List<String> params, int percent) {
+		switch (name) {
 		// Actions
 		case "Pop":
-			name = FunName.POP;
-			break;
+			return new Pop(direction(params, 0, AutDirection.F), percent);
 		case "Wizz":
-			name = FunName.WIZZ;
-			break;
+			return new Wizz(direction(params, 0, AutDirection.F), percent);
 		case "Move":
-			name = FunName.MOVE;
-			break;
-		case "Wait":
-			name = FunName.WAIT;
-			break;
+			return new Move(direction(params, 0, AutDirection.F), percent);
 		case "Egg":
-			name = FunName.EGG;
-			break;
+			return new Egg(direction(params, 0, AutDirection.F), percent);
 		case "Hit":
-			name = FunName.HIT;
-			break;
+			return new Hit(direction(params, 0, AutDirection.F), percent);
 		case "Jump":
-			name = FunName.JUMP;
-			break;
-		case "Explode":
-			name = FunName.EXPLODE;
-			break;
+			return new Jump(direction(params, 0, AutDirection.F), percent);
 		case "Pick":
-			name = FunName.PICK;
-			break;
-		case "Power":
-			name = FunName.POWER;
-			break;
+			return new Pick(direction(params, 0, AutDirection.F), percent);
 		case "Protect":
-			name = FunName.PROTECT;
-			break;
-		case "Store":
-			name = FunName.STORE;
-			break;
+			return new Protect(direction(params, 0, AutDirection.F), percent);
 		case "Turn":
-			name = FunName.TURN;
-			break;
+			return new Turn(direction(params, 0, AutDirection.R), percent);
 		case "Throw":
-			name = FunName.THROW;
-			break;
+			return new Throw(direction(params, 0, AutDirection.F), percent);
+		case "Wait":
+			return new Wait(percent);
+		case "Explode":
+			return new Explode(percent);
+		case "Power":
+			return new Power(percent);
+		case "Store":
+			return new Store(percent);
 		// Conditions
 		case "True":
-			name = FunName.TRUE;
-			break;
+			return new True(percent);
 		case "Cell":
-			name = FunName.CELL;
-			break;
+			expectParams(name, params, 2);
+			return new Cell(direction(params, 0, null), category(params.get(1)), percent);
 		case "Key":
-			name = FunName.KEY;
-			break;
+			expectParams(name, params, 1);
+			return new Key(AutKey.valueOf(params.get(0).toUpperCase()), percent);
 		case "MyDir":
-			name = FunName.MYDIR;
-			break;
+			expectParams(name, params, 1);
+			return new MyDir(direction(params, 0, null), percent);
 		case "Closest":
-			name = FunName.CLOSEST;
-			break;
+			expectParams(name, params, 2);
+			return new Closest(category(params.get(0)), direction(params, 1, null), percent);
 		case "GotPower":
-			name = FunName.GOTPOWER;
-			break;
+			return new GotPower(percent);
 		case "GotStuff":
-			name = FunName.GOTSTUFF;
-			break;
+			return new GotStuff(percent);
+		default:
+			throw new IllegalArgumentException("unknown function " + name);
 		}
-		params = paramsList;
-		percent = p;
 	}
 
-	private AutCategory getCategory(String cat) {
+	private static void expectParams(String name, List<String> params, int count) {
+		if (params.size() != count)
+			throw new IllegalArgumentException(name + " takes " + count + " parameters, got " + params);
+	}
+
+	/**
+	 * @return The direction given at this index, or the default one if there are
+	 *         no parameters
+	 */
+	private static AutDirection direction(List<String> params, int index, AutDirection defaultDirection) {
+		if (params.isEmpty() && defaultDirection != null)
+			return defaultDirection;
+		return AutDirection.valueOf(params.get(index).toUpperCase());
+	}
+
+	private static AutCategory category(String cat) {
 		if (cat.equals("@"))
 			return AutCategory.AROBASE;
 		if (cat.equals("_"))
@@ -99,91 +103,566 @@ public class GFunCall implements IFunction {
 			return AutCategory.valueOf(cat);
 	}
 
+	boolean isTrue() {
+		return false;
+	}
+
+	/**
+	 * @return The name of the function in .gal files, which is the name of its
+	 *         subclass
+	 */
+	String name() {
+		return getClass().getSimpleName();
+	}
+
+	/**
+	 * @return The resolved parameters, in source order. Their names are accepted
+	 *         by {@link #create}.
+	 */
+	List<Enum<?>> parameters() {
+		return List.of();
+	}
+
+	/**
+	 * @return The name and parameters of this call, equal for two calls of the
+	 *         same function with the same parameters
+	 */
+	String signature() {
+		return name() + parameters();
+	}
+
 	@Override
-	public boolean eval(AutomatonListener aut) {
-		switch (name) {
-		// Actions
-		case POP:
-			if (params.size() == 0)
-				return aut.pop(AutDirection.F);
-			else
-				return aut.pop(AutDirection.valueOf(params.get(0).toUpperCase()));
-		case WIZZ:
-			if (params.size() == 0)
-				return aut.wizz(AutDirection.F);
-			else
-				return aut.wizz(AutDirection.valueOf(params.get(0).toUpperCase()));
-		case MOVE:
-			if (params.size() == 0)
-				return aut.move(AutDirection.F);
-			else
-				return aut.move(AutDirection.valueOf(params.get(0).toUpperCase()));
-		case WAIT:
+	public String toString() {
+		return signature();
+	}
+
+	/**
+	 * @return false if evaluating this condition may have effects on some
+	 *         listeners. An automaton is shared by entities of any kind, so
+	 *         {@link AutomatonOptimizer} must assume the worst.
+	 */
+	boolean isPure() {
+		return true;
+	}
+
+	/**
+	 * @return true if evaluating this condition has no effects: only made of
+	 *         {@link #isPure} calls
+	 */
+	static boolean isPureCondition(IFunction condition) {
+		if (condition instanceof AndCondition) {
+			AndCondition and = (AndCondition) condition;
+			return isPureCondition(and.left) && isPureCondition(and.right);
+		}
+		if (condition instanceof OrCondition) {
+			OrCondition or = (OrCondition) condition;
+			return isPureCondition(or.left) && isPureCondition(or.right);
+		}
+		if (condition instanceof NotCondition)
+			return isPureCondition(((NotCondition) condition).cond);
+		// Other functions may do anything
+		return condition instanceof GFunCall && ((GFunCall) condition).isPure();
+	}
+
+	/**
+	 * @return What the result of this condition depends on, as
+	 *         {@link CompiledAutomaton#getWakeDependencies} flags
+	 */
+	int wakeDependencies() {
+		return CompiledAutomaton.NEVER_SLEEP;
+	}
+
+	/**
+	 * @return The Java expression doing what {@link #eval} does, with
+	 *         {@code aut} being the listener
+	 */
+	abstract String source(String aut);
+
+	// Actions
+
+	static final class Pop extends GFunCall {
+		final AutDirection direction;
+
+		Pop(AutDirection direction, int percent) {
+			super(percent);
+			this.direction = direction;
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
+			return aut.pop(direction);
+		}
+
+		@Override
+		List<Enum<?>> parameters() {
+			return List.of(direction);
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".pop(AutDirection." + direction + ")";
+		}
+	}
+
+	static final class Wizz extends GFunCall {
+		final AutDirection direction;
+
+		Wizz(AutDirection direction, int percent) {
+			super(percent);
+			this.direction = direction;
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
+			return aut.wizz(direction);
+		}
+
+		@Override
+		List<Enum<?>> parameters() {
+			return List.of(direction);
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".wizz(AutDirection." + direction + ")";
+		}
+	}
+
+	static final class Move extends GFunCall {
+		final AutDirection direction;
+
+		Move(AutDirection direction, int percent) {
+			super(percent);
+			this.direction = direction;
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
+			return aut.move(direction);
+		}
+
+		@Override
+		List<Enum<?>> parameters() {
+			return List.of(direction);
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".move(AutDirection." + direction + ")";
+		}
+	}
+
+	static final class Egg extends GFunCall {
+		final AutDirection direction;
+
+		Egg(AutDirection direction, int percent) {
+			super(percent);
+			this.direction = direction;
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
+			return aut.egg(direction);
+		}
+
+		@Override
+		List<Enum<?>> parameters() {
+			return List.of(direction);
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".egg(AutDirection." + direction + ")";
+		}
+	}
+
+	static final class Hit extends GFunCall {
+		final AutDirection direction;
+
+		Hit(AutDirection direction, int percent) {
+			super(percent);
+			this.direction = direction;
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
+			return aut.hit(direction);
+		}
+
+		@Override
+		List<Enum<?>> parameters() {
+			return List.of(direction);
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".hit(AutDirection." + direction + ")";
+		}
+	}
+
+	static final class Jump extends GFunCall {
+		final AutDirection direction;
+
+		Jump(AutDirection direction, int percent) {
+			super(percent);
+			this.direction = direction;
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
+			return aut.jump(direction);
+		}
+
+		@Override
+		List<Enum<?>> parameters() {
+			return List.of(direction);
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".jump(AutDirection." + direction + ")";
+		}
+	}
+
+	static final class Pick extends GFunCall {
+		final AutDirection direction;
+
+		Pick(AutDirection direction, int percent) {
+			super(percent);
+			this.direction = direction;
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
+			return aut.pick(direction);
+		}
+
+		@Override
+		List<Enum<?>> parameters() {
+			return List.of(direction);
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".pick(AutDirection." + direction + ")";
+		}
+	}
+
+	static final class Protect extends GFunCall {
+		final AutDirection direction;
+
+		Protect(AutDirection direction, int percent) {
+			super(percent);
+			this.direction = direction;
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
+			return aut.protect(direction);
+		}
+
+		@Override
+		List<Enum<?>> parameters() {
+			return List.of(direction);
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".protect(AutDirection." + direction + ")";
+		}
+	}
+
+	static final class Turn extends GFunCall {
+		final AutDirection direction;
+
+		Turn(AutDirection direction, int percent) {
+			super(percent);
+			this.direction = direction;
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
+			return aut.turn(direction);
+		}
+
+		@Override
+		List<Enum<?>> parameters() {
+			return List.of(direction);
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".turn(AutDirection." + direction + ")";
+		}
+	}
+
+	static final class Throw extends GFunCall {
+		final AutDirection direction;
+
+		Throw(AutDirection direction, int percent) {
+			super(percent);
+			this.direction = direction;
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
+			return aut.gthrow(direction);
+		}
+
+		@Override
+		List<Enum<?>> parameters() {
+			return List.of(direction);
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".gthrow(AutDirection." + direction + ")";
+		}
+	}
+
+	static final class Wait extends GFunCall {
+		Wait(int percent) {
+			super(percent);
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
 			return aut.gwait();
-		case EGG:
-			if (params.size() == 0)
-				return aut.egg(AutDirection.F);
-			else
-				return aut.egg(AutDirection.valueOf(params.get(0).toUpperCase()));
-		case HIT:
-			if (params.size() == 0)
-				return aut.hit(AutDirection.F);
-			else
-				return aut.hit(AutDirection.valueOf(params.get(0).toUpperCase()));
-		case JUMP:
-			if (params.size() == 0)
-				return aut.jump(AutDirection.F);
-			else
-				return aut.jump(AutDirection.valueOf(params.get(0).toUpperCase()));
-		case EXPLODE:
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".gwait()";
+		}
+	}
+
+	static final class Explode extends GFunCall {
+		Explode(int percent) {
+			super(percent);
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
 			return aut.explode();
-		case PICK:
-			if (params.size() == 0)
-				return aut.pick(AutDirection.F);
-			else
-				return aut.pick(AutDirection.valueOf(params.get(0).toUpperCase()));
-		case POWER:
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".explode()";
+		}
+	}
+
+	static final class Power extends GFunCall {
+		Power(int percent) {
+			super(percent);
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
 			return aut.power();
-		case PROTECT:
-			if (params.size() == 0)
-				return aut.protect(AutDirection.F);
-			else
-				return aut.protect(AutDirection.valueOf(params.get(0).toUpperCase()));
-		case STORE:
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".power()";
+		}
+	}
+
+	static final class Store extends GFunCall {
+		Store(int percent) {
+			super(percent);
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
 			return aut.store();
-		case TURN:
-			if (params.size() == 0)
-				return aut.turn(AutDirection.R);
-			else
-				return aut.turn(AutDirection.valueOf(params.get(0).toUpperCase()));
-		case THROW:
-			if (params.size() == 0)
-				return aut.gthrow(AutDirection.F);
-			else
-				return aut.gthrow(AutDirection.valueOf(params.get(0).toUpperCase()));
-
-			// Conditions
-		case TRUE:
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".store()";
+		}
+	}
+
+	// Conditions
+
+	static final class True extends GFunCall {
+		True(int percent) {
+			super(percent);
+		}
+
+		@Override
+		boolean isTrue() {
+			return true;
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
 			return true;
-		case CELL:
-			if (params.size() == 2)
-				return aut.cell(AutDirection.valueOf(params.get(0).toUpperCase()), getCategory(params.get(1)));
-		case KEY:
-			if (params.size() == 1)
-				return aut.key(AutKey.valueOf(params.get(0).toUpperCase()));
-		case MYDIR:
-			if (params.size() == 1)
-				return aut.myDir(AutDirection.valueOf(params.get(0).toUpperCase()));
-		case CLOSEST:
-			if (params.size() == 2)
-				aut.closest(getCategory(params.get(1)), AutDirection.valueOf(params.get(1).toUpperCase()));
-		case GOTPOWER:
+		}
+
+		@Override
+		String source(String aut) {
+			return "true";
+		}
+	}
+
+	static final class Cell extends GFunCall {
+		final AutDirection direction;
+		final AutCategory category;
+
+		Cell(AutDirection direction, AutCategory category, int percent) {
+			super(percent);
+			this.direction = direction;
+			this.category = category;
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
+			return aut.cell(direction, category);
+		}
+
+		@Override
+		int wakeDependencies() {
+			return CompiledAutomaton.WAKE_ON_PROBED_CELLS;
+		}
+
+		// CookEntity turns towards the cell, CarEntity remembers the entity found
+		// in it
+		@Override
+		boolean isPure() {
+			return false;
+		}
+
+		@Override
+		List<Enum<?>> parameters() {
+			return List.of(direction, category);
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".cell(AutDirection." + direction + ", AutCategory." + category + ")";
+		}
+	}
+
+	static final class Key extends GFunCall {
+		final AutKey key;
+
+		Key(AutKey key, int percent) {
+			super(percent);
+			this.key = key;
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
+			return aut.key(key);
+		}
+
+		@Override
+		int wakeDependencies() {
+			return CompiledAutomaton.WAKE_ON_KEY;
+		}
+
+		@Override
+		List<Enum<?>> parameters() {
+			return List.of(key);
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".key(AutKey." + key + ")";
+		}
+	}
+
+	static final class MyDir extends GFunCall {
+		final AutDirection direction;
+
+		MyDir(AutDirection direction, int percent) {
+			super(percent);
+			this.direction = direction;
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
+			return aut.myDir(direction);
+		}
+
+		@Override
+		int wakeDependencies() {
+			return CompiledAutomaton.WAKE_ON_OCCUPANCY;
+		}
+
+		@Override
+		List<Enum<?>> parameters() {
+			return List.of(direction);
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".myDir(AutDirection." + direction + ")";
+		}
+	}
+
+	static final class Closest extends GFunCall {
+		final AutCategory category;
+		final AutDirection direction;
+
+		Closest(AutCategory category, AutDirection direction, int percent) {
+			super(percent);
+			this.category = category;
+			this.direction = direction;
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
+			return aut.closest(category, direction);
+		}
+
+		@Override
+		int wakeDependencies() {
+			return CompiledAutomaton.WAKE_ON_OCCUPANCY;
+		}
+
+		@Override
+		List<Enum<?>> parameters() {
+			return List.of(category, direction);
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".closest(AutCategory." + category + ", AutDirection." + direction + ")";
+		}
+	}
+
+	static final class GotPower extends GFunCall {
+		GotPower(int percent) {
+			super(percent);
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
 			return aut.gotPower();
-		case GOTSTUFF:
-			return aut.gotStuff();
-		default:
-			throw new IllegalStateException("panic");
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".gotPower()";
 		}
 	}
 
+	static final class GotStuff extends GFunCall {
+		GotStuff(int percent) {
+			super(percent);
+		}
+
+		@Override
+		public boolean eval(AutomatonListener aut) {
+			return aut.gotStuff();
+		}
+
+		@Override
+		String source(String aut) {
+			return aut + ".gotStuff()";
+		}
+	}
 }
@@ -2,6 +2,7 @@ package info3.game.automata;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.SplittableRandom;
 
 public class GState {
 	public final List<GTransition> transitions;
@@ -20,12 +21,12 @@ public class GState {
 		this.transitions.add(transition);
 	}
 
-	public GState checkTransitions(AutomatonListener aut) {
+	public GState checkTransitions(AutomatonListener aut, SplittableRandom random) {
 		GState state = null;
 		for (GTransition transition : transitions) {
 			// on parcourt transi jusqu'a trouver une qui
 
-			state = transition.doTransition(aut);
+			state = transition.doTransition(aut, random);
 			if (state != null)
 				break;
 		}
@@ -11,4 +11,9 @@ public class NotCondition implements IFunction {
 	public boolean eval(AutomatonListener aut) {
 		return !cond.eval(aut);
 	}
+
+	@Override
+	public String toString() {
+		return "!" + cond;
+	}
 }
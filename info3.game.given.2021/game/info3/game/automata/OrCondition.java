@@ -14,4 +14,9 @@ public class OrCondition implements IFunction {
 	public boolean eval(AutomatonListener aut) {
 		return left.eval(aut) || right.eval(aut);
 	}
+
+	@Override
+	public String toString() {
+		return "(" + left + " / " + right + ")";
+	}
 }
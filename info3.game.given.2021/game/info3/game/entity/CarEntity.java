@@ -91,6 +91,13 @@ public class CarEntity extends Entity {
 
 	}
 
+	// cell only reads the other entities and the world generator, but key
+	// consumes the press it reads, like ENTER for the player truck
+	@Override
+	public boolean canSelectInParallel() {
+		return !isPlayer && !readsKeys();
+	}
+
 	@Override
 	public EntityType getType() {
 		if (isPlayer) {
@@ -105,7 +112,7 @@ public class CarEntity extends Entity {
 			this.parentScene.removeEntity(this);
 		else {
 			super.tick(elapsed);
-			this.position = this.position.add(physics.shift());
+			setPosition(this.position.add(physics.shift()));
 
 			finish = System.currentTimeMillis();
 			timeElapsed = finish - start;
@@ -175,7 +182,7 @@ public class CarEntity extends Entity {
 	@Override
 	public boolean hit(AutDirection direction) {
 		parentScene.game.playSound("crash");
-		this.position = this.position.add(physics.bounce());
+		setPosition(this.position.add(physics.bounce()));
 		return true;
 	}
 
@@ -186,23 +193,23 @@ public class CarEntity extends Entity {
 		switch (newDirection) {
 		case N: {
 			PositionF newPos = new PositionF(0, -0.5f);
-			this.position = position.add(newPos);
+			setPosition(position.add(newPos));
 			return true;
 		}
 		case W: {
 			PositionF newPos = new PositionF(-0.5f, 0);
-			this.position = position.add(newPos);
+			setPosition(position.add(newPos));
 
 			return true;
 		}
 		case E: {
 			PositionF newPos = new PositionF(0.5f, 0);
-			this.position = position.add(newPos);
+			setPosition(position.add(newPos));
 			return true;
 		}
 		case S: {
 			PositionF newPos = new PositionF(0, 0.5f);
-			this.position = position.add(newPos);
+			setPosition(position.add(newPos));
 			return true;
 		}
 		default:
@@ -238,7 +245,9 @@ public class CarEntity extends Entity {
 	@Override
 	public boolean cell(AutDirection direction, AutCategory category) {
 		AutDirection newDirection = convertRelativToAbsolutedir(direction);
-		for (Entity entity : parentScene.entityList) {
+		// The probed points are at most one pixel around the car
+		for (Entity entity : getEntitiesIn(position.getX() - 1, position.getY() - 1, position.getX() + 4,
+				position.getY() + 4)) {
 			if (entity != this) {
 				switch (newDirection) {
 				case N: {
@@ -341,6 +350,7 @@ public class CarEntity extends Entity {
 	}
 
 	public void changeCategory() {
+		parentScene.occupancyChanged(this);
 		if (!isPlayer)
 			category = AutCategory.A;
 		else
@@ -7,7 +7,6 @@ import info3.game.graphics.Graphics;
 import info3.game.graphics.Sprite;
 import info3.game.position.AutDirection;
 import info3.game.position.PositionF;
-import info3.game.position.PositionI;
 import info3.game.scene.CityScene;
 import info3.game.scene.Scene;
 import info3.game.worldgen.GenTile;
@@ -27,15 +26,19 @@ public class CityTile extends Tile {
 	public MarketEntity eMarketStall = null;
 
 	public CityTile(Scene parent, int gridX, int gridY) {
+		this(parent, gridX, gridY, ((CityScene) parent).worldGenerator.generate(gridX, gridY));
+	}
+
+	public CityTile(Scene parent, int gridX, int gridY, GenTile genTile) {
 		super(parent, gridX, gridY);
 		position = new PositionF(gridX * parentScene.getTileWidth(), gridY * parentScene.getTileWidth());
-		genTile = ((CityScene) parent).worldGenerator.generate(gridX, gridY);
+		this.genTile = genTile;
 		topRoadSprite = genTile.marketPavingTop == null ? null : MARKET_SPRITE_TOP.get(genTile.marketPavingTop);
 		leftRoadSprite = genTile.marketPavingLeft == null ? null : MARKET_SPRITE_LEFT.get(genTile.marketPavingLeft);
 		if (genTile.speedbumpLeft || genTile.speedbumpTop)
 			eSpeedbump = new SpeedBumpEntity(parent, position, this);
 		if (genTile.hasMarketPaving
-				&& !((CityScene) parentScene).cacheMarketVisited.contains(new PositionI(gridX, gridY)))
+				&& !((CityScene) parentScene).cacheMarketVisited.contains(gridX, gridY))
 			eMarketStall = new MarketEntity(parent, position, this);
 
 		if (genTile.hasMarketPaving) {
@@ -21,6 +21,13 @@ public class CockroachEntity extends Entity {
 		this.timerToWait = 500;
 	}
 
+	// cell only reads the entities and the kitchen grid, but key consumes the
+	// press it reads
+	@Override
+	public boolean canSelectInParallel() {
+		return !readsKeys();
+	}
+
 	@Override
 	public EntityType getType() {
 		return EntityType.COCKROACH;
@@ -32,7 +32,7 @@ public class ConeEntity extends Entity {
 	@Override
 	public void tick(long elapsed) {
 		super.tick(elapsed);
-		this.position = this.position.add(physics.shift());
+		setPosition(this.position.add(physics.shift()));
 		if (onWizz) {
 			timerWizz--;
 		}
@@ -78,15 +78,16 @@ public class ConeEntity extends Entity {
 	@Override
 	public boolean hit(AutDirection direction) {
 		System.out.println("bounce");
-		this.position = this.position.add(physics.bounce());
+		setPosition(this.position.add(physics.bounce()));
 		return true;
 	}
 
 	@Override
 	public boolean cell(AutDirection direction, AutCategory category) {
 		AutDirection newDirection = convertRelativToAbsolutedir(direction);
-		// Les entités qui bougent
-		for (Entity entity : parentScene.entityList) {
+		// Les entités qui bougent, à moins de 3 pixels
+		for (Entity entity : getEntitiesIn(position.getX() - 3, position.getY() - 3, position.getX() + 3,
+				position.getY() + 3)) {
 			switch (newDirection) {
 			case N: {
 				if (entity.position.add(new PositionF(0, 1)).distance(position) < 2 && entity.category == category) {
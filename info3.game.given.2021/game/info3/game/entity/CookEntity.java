@@ -105,6 +105,17 @@ public class CookEntity extends Entity {
 		return (this.item != null || this.assembly != null);
 	}
 
+	// cell turns the cook, which changes the answer of the next conditions
+	@Override
+	protected boolean canSleep() {
+		return false;
+	}
+
+	@Override
+	public boolean canMemoizeConditions() {
+		return false;
+	}
+
 	@Override
 	public boolean cell(AutDirection direction, AutCategory category) {
 		boolean c = super.cell(direction, category);
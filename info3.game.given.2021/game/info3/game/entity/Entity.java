@@ -1,8 +1,10 @@
 package info3.game.entity;
 
+import java.util.List;
+import java.util.SplittableRandom;
+
 import info3.game.automata.AutomatonListener;
-import info3.game.automata.GAutomaton;
-import info3.game.automata.GState;
+import info3.game.automata.CompiledAutomaton;
 import info3.game.graphics.Graphics;
 import info3.game.position.AutCategory;
 import info3.game.position.AutDirection;
@@ -15,8 +17,22 @@ import info3.game.scene.Scene;
 public abstract class Entity implements AutomatonListener {
 	final Scene parentScene;
 
-	GAutomaton automaton;
-	GState currentState;
+	CompiledAutomaton automaton;
+	int currentState;
+	// Draws the weighted actions of the automaton
+	final SplittableRandom random;
+	// Transition chosen by selectTransition for this automaton and state, fired
+	// by the next tick
+	private CompiledAutomaton selectedAutomaton = null;
+	private int selectedState, selectedTransition;
+	private long selectedKeyEpoch, selectedOccupancyEpoch;
+	// Cells of the scene read by cell while the transition was selected
+	private final Scene.ProbedCells probedCells = new Scene.ProbedCells();
+	private boolean probing = false;
+	// Set when no condition of the current state held, until one of its inputs
+	// changes: the epochs are the ones read before evaluating them
+	private boolean asleep = false;
+	private long sleepKeyEpoch, sleepOccupancyEpoch;
 
 	AutDirection direction;
 	AutCategory category;
@@ -26,22 +42,35 @@ public abstract class Entity implements AutomatonListener {
 	long start, finish, timeElapsed, timerToWait = 0;
 
 	// If different from what `getType` returns, we should replace the automaton
-	// This is checked at each tick
+	// This is checked at each tick, as well as the automaton bound to the type,
+	// which changes when it is reloaded
 	EntityType lastEntityType = null;
 
 	Entity(Scene parent, PositionF pos) {
 		parentScene = parent;
 		position = pos;
 		direction = AutDirection.N;
+		random = parent.splitRandom();
 
-		automaton = parentScene.game.getBoundAutomaton(getType());
-		currentState = automaton.initial;
+		automaton = parentScene.game.getBoundAutomaton(getType()).getCompiled();
+		currentState = automaton.getInitialState();
 	}
 
 	public abstract EntityType getType();
 
 	public void setPosition(PositionF pos) {
+		boolean moved = position == null || pos.getX() != position.getX() || pos.getY() != position.getY();
 		position = pos;
+		if (moved)
+			parentScene.entityMoved(this);
+	}
+
+	/**
+	 * @return The side of the square from the position where
+	 *         {@link #catAtThisPos} can find this entity, minus one
+	 */
+	public float getSize() {
+		return 3;
 	}
 
 	public PositionF getPosition() {
@@ -50,20 +79,105 @@ public abstract class Entity implements AutomatonListener {
 
 	public void tick(long elapsed) {
 		EntityType entityType = getType();
-		if (lastEntityType != entityType) {
-			automaton = parentScene.game.getBoundAutomaton(entityType);
-			currentState = automaton.initial;
+		CompiledAutomaton bound = parentScene.game.getBoundAutomaton(entityType).getCompiled();
+		if (lastEntityType != entityType || bound != automaton) {
+			automaton = bound;
+			currentState = automaton.getInitialState();
 			lastEntityType = entityType;
+			asleep = false;
 		}
-
-		GState state = automaton.run(this, currentState);
-		if (state != null) {
+		if (asleep && !isWokenUp())
+			return;
+		asleep = false;
+
+		// Conditions that can put the entity asleep are evaluated first, to know
+		// if none of them holds
+		boolean canSleep = canSleep()
+				&& (automaton.getWakeDependencies(currentState) & CompiledAutomaton.NEVER_SLEEP) == 0;
+		if (canSleep && !isSelected())
+			selectTransition();
+
+		int state;
+		if (isSelected()) {
+			state = automaton.stepFrom(this, random, currentState, selectedTransition);
+			if (canSleep && selectedTransition == CompiledAutomaton.NO_TRANSITION) {
+				asleep = true;
+				sleepKeyEpoch = selectedKeyEpoch;
+				sleepOccupancyEpoch = selectedOccupancyEpoch;
+			}
+		} else {
+			state = automaton.step(this, random, currentState);
+		}
+		selectedAutomaton = null;
+		if (state != CompiledAutomaton.NO_TRANSITION) {
 			currentState = state;
 		}
-		if (currentState.name.equals(""))
+		if (automaton.getStateName(currentState).isEmpty())
 			parentScene.removeEntity(this);
 	}
 
+	/**
+	 * @return false if the conditions of this entity can change without any
+	 *         input of {@link CompiledAutomaton#getWakeDependencies} changing,
+	 *         so that it must be stepped at every tick
+	 */
+	protected boolean canSleep() {
+		return true;
+	}
+
+	/**
+	 * @return true if the conditions of the current state read keys, which
+	 *         consumes the presses they see
+	 */
+	protected boolean readsKeys() {
+		return (automaton.getWakeDependencies(currentState) & CompiledAutomaton.WAKE_ON_KEY) != 0;
+	}
+
+	private boolean isWokenUp() {
+		int dependencies = automaton.getWakeDependencies(currentState);
+		return (dependencies & CompiledAutomaton.WAKE_ON_KEY) != 0
+				&& parentScene.game.listener.getKeyEpoch() != sleepKeyEpoch
+				|| (dependencies & CompiledAutomaton.WAKE_ON_OCCUPANCY) != 0
+						&& parentScene.getOccupancyEpoch() != sleepOccupancyEpoch
+				|| (dependencies & CompiledAutomaton.WAKE_ON_PROBED_CELLS) != 0
+						&& parentScene.changedSince(probedCells, sleepOccupancyEpoch);
+	}
+
+	private boolean isSelected() {
+		return selectedAutomaton == automaton && selectedState == currentState;
+	}
+
+	/**
+	 * @return true if the conditions of this entity only read the scene and
+	 *         write to the entity itself, so that {@link #selectTransition} can
+	 *         be called from any thread
+	 */
+	public boolean canSelectInParallel() {
+		return false;
+	}
+
+	/**
+	 * Evaluates the conditions of the current state, so that the next tick only
+	 * has to fire the chosen transition. Nothing is selected if the automaton is
+	 * about to be replaced, or if the entity sleeps.
+	 */
+	public void selectTransition() {
+		EntityType entityType = getType();
+		if (lastEntityType != entityType || asleep && !isWokenUp()
+				|| parentScene.game.getBoundAutomaton(entityType).getCompiled() != automaton)
+			return;
+		// Read before the conditions, so that any change while they are evaluated
+		// wakes the entity up
+		selectedKeyEpoch = parentScene.game.listener.getKeyEpoch();
+		selectedOccupancyEpoch = parentScene.getOccupancyEpoch();
+		probedCells.clear();
+		probing = true;
+		selectedTransition = automaton.selectTransition(this, currentState);
+		probing = false;
+		selectedState = currentState;
+		selectedAutomaton = automaton;
+	}
+
 	public void render(Graphics g) {
 		// TODO
 	}
@@ -103,28 +217,28 @@ public abstract class Entity implements AutomatonListener {
 			switch (newDirection) {
 			case N: {
 				PositionF newPos = new PositionF(0, -shift);
-				this.position = position.add(newPos);
+				setPosition(position.add(newPos));
 				start = System.currentTimeMillis();
 
 				return true;
 			}
 			case W: {
 				PositionF newPos = new PositionF(-shift, 0);
-				this.position = position.add(newPos);
+				setPosition(position.add(newPos));
 				start = System.currentTimeMillis();
 
 				return true;
 			}
 			case E: {
 				PositionF newPos = new PositionF(shift, 0);
-				this.position = position.add(newPos);
+				setPosition(position.add(newPos));
 				start = System.currentTimeMillis();
 
 				return true;
 			}
 			case S: {
 				PositionF newPos = new PositionF(0, shift);
-				this.position = position.add(newPos);
+				setPosition(position.add(newPos));
 				start = System.currentTimeMillis();
 
 				return true;
@@ -144,7 +258,7 @@ public abstract class Entity implements AutomatonListener {
 		int gridY = getGridPosFromPos().getY();
 		AutDirection newDirection = convertRelativToAbsolutedir(direction);
 		// Les entités qui bougent
-		for (Entity entity : parentScene.entityList) {
+		for (Entity entity : getEntitiesAroundGridCell()) {
 			switch (newDirection) {
 			case N: {
 				if (entity.isItThatGrid(gridY - 1, gridX) && entity.category == category) {
@@ -236,7 +350,7 @@ public abstract class Entity implements AutomatonListener {
 	public Entity selectEntityToInteractWith() {
 		int gridX = getGridPosFromPos().getX();
 		int gridY = getGridPosFromPos().getY();
-		for (Entity entity : parentScene.entityList) {
+		for (Entity entity : getEntitiesAroundGridCell()) {
 			switch (direction) {
 			case N:
 				if (entity.isItThatGrid(gridY - 1, gridX) && entity.direction == AutDirection.S)
@@ -262,9 +376,32 @@ public abstract class Entity implements AutomatonListener {
 	}
 
 	public void setDirection(AutDirection absDirection) {
+		if (absDirection != direction)
+			parentScene.occupancyChanged(this);
 		this.direction = absDirection;
 	}
 
+	/**
+	 * Like {@link Scene#getEntitiesIn(float, float, float, float)}. While the
+	 * transition is selected, the cells read are kept to know when to wake up.
+	 */
+	protected List<Entity> getEntitiesIn(float minX, float minY, float maxX, float maxY) {
+		return parentScene.getEntitiesIn(minX, minY, maxX, maxY, probing ? probedCells : null);
+	}
+
+	/**
+	 * @return The entities that may be in the grid cell of this entity or the
+	 *         eight cells around it
+	 */
+	protected List<Entity> getEntitiesAroundGridCell() {
+		PositionI grid = getGridPosFromPos();
+		PositionF origin = parentScene.getOriginOffset();
+		int tileWidth = parentScene.getTileWidth();
+		return getEntitiesIn((grid.getX() - 1) * tileWidth - origin.getX(),
+				(grid.getY() - 1) * tileWidth - origin.getY(), (grid.getX() + 2) * tileWidth - origin.getX(),
+				(grid.getY() + 2) * tileWidth - origin.getY());
+	}
+
 	/*
 	 * Fct qui renvoit la grille correspondante à la position de l'ENTITE en pixels.
 	 *
@@ -403,7 +540,7 @@ public abstract class Entity implements AutomatonListener {
 
 	@Override
 	public boolean explode() {
-		return this.parentScene.entityList.remove(this);
+		return this.parentScene.removeEntity(this);
 	}
 
 }
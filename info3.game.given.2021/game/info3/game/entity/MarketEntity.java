@@ -79,7 +79,9 @@ public class MarketEntity extends Entity {
 
 	public boolean cell(AutDirection direction, AutCategory category) {
 		AutDirection newDirection = convertRelativToAbsolutedir(direction);
-		for (Entity entity : parentScene.entityList) {
+		// Cars whose corners can be inside the stall
+		for (Entity entity : getEntitiesIn(position.getX() - 3, position.getY() - 3, position.getX() + 19,
+				position.getY() + 19)) {
 			if (newDirection == AutDirection.H) {
 				if (this.carInsideThisPos(entity) == category) {
 					return true;
@@ -59,7 +59,9 @@ public class SpeedBumpEntity extends Entity {
 		boolean top = parentTile.genTile.speedbumpTop;
 		boolean left = parentTile.genTile.speedbumpLeft;
 		AutDirection newDirection = convertRelativToAbsolutedir(direction);
-		for (Entity entity : parentScene.entityList) {
+		// Cars whose corners can be inside the tile
+		for (Entity entity : getEntitiesIn(position.getX() - 3, position.getY() - 3, position.getX() + 19,
+				position.getY() + 19)) {
 			do {
 				if (top) {
 					startPosX = 9;
@@ -121,6 +123,11 @@ public class SpeedBumpEntity extends Entity {
 		return false;
 	}
 
+	@Override
+	public float getSize() {
+		return 19;
+	}
+
 	/*
 	 * Fct qui renvoit la category de l'entite si la position donnée correspond à la
 	 * sienne
@@ -0,0 +1,189 @@
+package info3.game.position;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Map from grid coordinates to values, which doesn't allocate a key object per
+ * lookup.
+ * <p>
+ * Both coordinates are packed into a single {@code long} key, and entries are
+ * stored in flat arrays with open addressing (linear probing, backward shift
+ * deletion). Null values are not supported: {@link #get(int, int)} returns null
+ * for absent keys.
+ */
+public final class GridMap<V> {
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private V[] values;
+	private int mask;
+	private int size = 0;
+
+	// Keys collected by removeIf, reused between calls
+	private long[] removalBuffer = new long[0];
+
+	public GridMap() {
+		this(MIN_CAPACITY);
+	}
+
+	public GridMap(int expectedSize) {
+		allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, expectedSize) * 2 - 1) << 1));
+	}
+
+	public static long pack(int x, int y) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+
+	public static int unpackX(long key) {
+		return (int) (key >> 32);
+	}
+
+	public static int unpackY(long key) {
+		return (int) key;
+	}
+
+	private static int hash(long key) {
+		// Murmur3 finalizer, so that neighbour cells don't end up in neighbour slots
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = (V[]) new Object[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * @return The slot holding this key, or the empty slot where it would be
+	 *         inserted
+	 */
+	private int slotOf(long key) {
+		int slot = hash(key) & mask;
+		while (values[slot] != null && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	public V get(int x, int y) {
+		return values[slotOf(pack(x, y))];
+	}
+
+	public boolean containsKey(int x, int y) {
+		return get(x, y) != null;
+	}
+
+	/**
+	 * @return The previous value for this key, or null
+	 */
+	public V put(int x, int y, V value) {
+		Objects.requireNonNull(value, "GridMap doesn't support null values");
+		long key = pack(x, y);
+		int slot = slotOf(key);
+		V previous = values[slot];
+		keys[slot] = key;
+		values[slot] = value;
+		if (previous == null && ++size > (mask + 1) * 3 / 4)
+			grow();
+		return previous;
+	}
+
+	/**
+	 * @return The removed value, or null if there was none
+	 */
+	public V remove(int x, int y) {
+		return removeKey(pack(x, y));
+	}
+
+	private V removeKey(long key) {
+		int slot = slotOf(key);
+		V previous = values[slot];
+		if (previous == null)
+			return null;
+
+		// Shift back the following entries of the probe sequence so that no lookup
+		// stops early on the hole we are leaving
+		int hole = slot;
+		int next = (hole + 1) & mask;
+		while (values[next] != null) {
+			int ideal = hash(keys[next]) & mask;
+			if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		values[hole] = null;
+		size--;
+		return previous;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		V[] oldValues = values;
+		allocate(oldKeys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = slotOf(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	public void forEach(EntryConsumer<? super V> action) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null)
+				action.accept(unpackX(keys[i]), unpackY(keys[i]), values[i]);
+		}
+	}
+
+	/**
+	 * Removes every entry matching the filter. The filter is called exactly once
+	 * per entry, so it may have side effects on the removed values.
+	 *
+	 * @return The number of removed entries
+	 */
+	public int removeIf(EntryPredicate<? super V> filter) {
+		int count = 0;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null && filter.test(unpackX(keys[i]), unpackY(keys[i]), values[i])) {
+				if (count == removalBuffer.length)
+					removalBuffer = Arrays.copyOf(removalBuffer, Math.max(MIN_CAPACITY, count * 2));
+				removalBuffer[count++] = keys[i];
+			}
+		}
+		// Removing shifts entries around, so it can't be done while iterating
+		for (int i = 0; i < count; i++)
+			removeKey(removalBuffer[i]);
+		return count;
+	}
+
+	@FunctionalInterface
+	public interface EntryConsumer<V> {
+		void accept(int x, int y, V value);
+	}
+
+	@FunctionalInterface
+	public interface EntryPredicate<V> {
+		boolean test(int x, int y, V value);
+	}
+}
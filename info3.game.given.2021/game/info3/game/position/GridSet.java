@@ -0,0 +1,31 @@
+package info3.game.position;
+
+/**
+ * Set of grid coordinates, backed by a {@link GridMap}
+ */
+public final class GridSet {
+	private final GridMap<Boolean> map = new GridMap<>();
+
+	/**
+	 * @return true if the cell wasn't already in the set
+	 */
+	public boolean add(int x, int y) {
+		return map.put(x, y, Boolean.TRUE) == null;
+	}
+
+	public boolean contains(int x, int y) {
+		return map.containsKey(x, y);
+	}
+
+	public boolean remove(int x, int y) {
+		return map.remove(x, y) != null;
+	}
+
+	public int size() {
+		return map.size();
+	}
+
+	public void clear() {
+		map.clear();
+	}
+}
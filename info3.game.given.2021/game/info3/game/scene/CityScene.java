@@ -1,8 +1,5 @@
 package info3.game.scene;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
 
@@ -15,12 +12,26 @@ import info3.game.entity.Tile;
 import info3.game.graphics.Graphics;
 import info3.game.graphics.Sprite;
 import info3.game.position.AutCategory;
+import info3.game.position.GridMap;
+import info3.game.position.GridSet;
 import info3.game.position.PositionF;
 import info3.game.position.PositionI;
+import info3.game.worldgen.GenTile;
+import info3.game.worldgen.GenTile.CollisionBox;
 import info3.game.worldgen.WorldGenerator;
 import info3.game.worldgen.WorldGenerator.LocatedMarket;
 
 public class CityScene extends Scene {
+	// Collision bit of each quadrant of a tile, in the order of whereInTile. The
+	// bottom right quadrant is always a wall.
+	private static final int BOTTOM_RIGHT_BIT = 8;
+	private static final int[] QUADRANT_BITS = { CollisionBox.TOP_LEFT_BIT, CollisionBox.TOP_BIT,
+			CollisionBox.LEFT_BIT, BOTTOM_RIGHT_BIT };
+
+	// Tiles are kept this many cells around the car, which covers the rendered
+	// area and its margin
+	private static final int WINDOW_HALF_WIDTH = 13, WINDOW_HALF_HEIGHT = 4;
+	private static final int WINDOW_WIDTH = 2 * WINDOW_HALF_WIDTH + 1, WINDOW_HEIGHT = 2 * WINDOW_HALF_HEIGHT + 1;
 
 	private final PositionF center = new PositionF((float) pixelWidth / 2F - 4.5F, (float) pixelHeight / 2F - 4.5F);
 	private PositionF vanPosition = PositionF.ZERO;
@@ -28,12 +39,19 @@ public class CityScene extends Scene {
 	public final WorldGenerator worldGenerator = new WorldGenerator(0);
 	private CarEntity cookCar;
 
-	// Finding nearest market is costly in performance, so we do not want to call it
-	// on every tick
 	private PositionI nearestMarketPos = new PositionI(0, 0);
-	private int count = 0;
-	private final Map<PositionI, CityTile> cachedCityTiles = new HashMap<>();
-	public final ArrayList<PositionI> cacheMarketVisited = new ArrayList<>();
+	// Ring buffer of the tiles around the car: a cell is stored at its grid
+	// coordinates modulo the size of the window, centered on windowX, windowY
+	private final CityTile[] windowTiles = new CityTile[WINDOW_WIDTH * WINDOW_HEIGHT];
+	private int windowX = 0, windowY = 0;
+	// Tiles asked for outside of the window, dropped at the next tick
+	private final GridMap<CityTile> outsideTiles = new GridMap<>();
+	public final GridSet cacheMarketVisited = new GridSet();
+
+	// Last region generated by loadRegion, used to create the tiles that render
+	// is about to ask for
+	private GenTile[] region = new GenTile[0];
+	private int regionMinX, regionMinY, regionW, regionH;
 
 	public CityScene(int pixelWidth, int pixelHeight, Game g) {
 		super(pixelWidth, pixelHeight, g);
@@ -46,13 +64,14 @@ public class CityScene extends Scene {
 	private void reloadCity() {
 		Random rdm = new Random(System.currentTimeMillis());
 		this.worldGenerator.changeSeed(rdm.nextLong());
-		this.cachedCityTiles.clear();
+		clearWindow();
+		this.regionW = 0;
 		vanPosition = PositionF.ZERO;
 		while (!((CityTile) (getTileAt((int) vanPosition.getX(), (int) vanPosition.getY()))).getGenTile().hasRoad()) {
 			vanPosition = vanPosition.add(new PositionF(getTileWidth(), 0));
 		}
 		this.nearestMarketPos = this.getNearestMarketPos();
-		this.entityList.clear();
+		clearEntities();
 		addEntity(cookCar);
 		deliveryTile = new CityDeliveryTile(this);
 		addEntity(deliveryTile);
@@ -64,12 +83,14 @@ public class CityScene extends Scene {
 		if (this.entityList.size() < 50)
 			getRandomTileNearViewport().tick(elapsed);
 
-		count += 1;
-		if (count == 100) {
-			nearestMarketPos = this.getNearestMarketPos();
-			count = 0;
-		}
-		removeUnusedTilesInCache();
+		nearestMarketPos = this.getNearestMarketPos();
+		PositionI cookCarCell = getGridPosFromPosCity(cookCar.getPosition());
+		moveWindow(cookCarCell.getX(), cookCarCell.getY());
+		worldGenerator.setFocus(cookCarCell.getX(), cookCarCell.getY());
+		PositionF shift = cookCar.physics.getLastPosChange();
+		if (shift != null)
+			worldGenerator.prefetch(cookCarCell.getX(), cookCarCell.getY(), shift.getX() / getTileWidth(),
+					shift.getY() / getTileWidth());
 		if (this.game.listener.isUp("G"))
 			reloadCity();
 	}
@@ -86,63 +107,109 @@ public class CityScene extends Scene {
 
 	@Override
 	public Tile getTileAt(int gridX, int gridY) {
-		PositionI posGrid = new PositionI(gridX, gridY);
-		CityTile storedTile = cachedCityTiles.get(posGrid);
+		if (isInWindow(gridX, gridY)) {
+			int slot = windowSlot(gridX, gridY);
+			if (windowTiles[slot] == null)
+				windowTiles[slot] = new CityTile(this, gridX, gridY, generate(gridX, gridY));
+			return windowTiles[slot];
+		}
+
+		CityTile storedTile = outsideTiles.get(gridX, gridY);
 		if (storedTile != null) {
 			return storedTile;
 		} else {
-			CityTile newTile = new CityTile(this, gridX, gridY);
-			cachedCityTiles.put(posGrid, newTile);
+			CityTile newTile = new CityTile(this, gridX, gridY, generate(gridX, gridY));
+			outsideTiles.put(gridX, gridY, newTile);
 			return newTile;
 		}
 	}
 
-	private void removeUnusedTilesInCache() {
-		PositionI gridPos = getGridPosFromPosCity(cookCar.getPosition());
-		ArrayList<PositionI> gridPosTilesToRemove = new ArrayList<>();
-		for (PositionI gridPosInCache : cachedCityTiles.keySet()) {
-			PositionI gridPosDiff = gridPos.sub(gridPosInCache);
-			if (Math.abs(gridPosDiff.getX()) > 13 || Math.abs(gridPosDiff.getY()) > 4)
-				gridPosTilesToRemove.add(gridPosInCache);
+	private GenTile generate(int gridX, int gridY) {
+		int x = gridX - regionMinX, y = gridY - regionMinY;
+		if (x >= 0 && x < regionW && y >= 0 && y < regionH)
+			return region[x + y * regionW];
+		return worldGenerator.generate(gridX, gridY);
+	}
+
+	@Override
+	protected void loadRegion(int minX, int minY, int w, int h) {
+		if (region.length < w * h)
+			region = new GenTile[w * h];
+		worldGenerator.generateRegion(minX, minY, w, h, region);
+		regionMinX = minX;
+		regionMinY = minY;
+		regionW = w;
+		regionH = h;
+	}
+
+	private boolean isInWindow(int gridX, int gridY) {
+		return Math.abs(gridX - windowX) <= WINDOW_HALF_WIDTH && Math.abs(gridY - windowY) <= WINDOW_HALF_HEIGHT;
+	}
+
+	private static int windowSlot(int gridX, int gridY) {
+		return Math.floorMod(gridX, WINDOW_WIDTH) + Math.floorMod(gridY, WINDOW_HEIGHT) * WINDOW_WIDTH;
+	}
+
+	/**
+	 * Centers the window on this cell. Only the columns and rows leaving the
+	 * window are dropped, the ones entering it are created when asked for.
+	 */
+	private void moveWindow(int gridX, int gridY) {
+		if (!outsideTiles.isEmpty()) {
+			outsideTiles.forEach((x, y, tile) -> removeTileEntities(tile));
+			outsideTiles.clear();
 		}
-		for (PositionI gridPosToRemove : gridPosTilesToRemove) {
-			CityTile tile = (CityTile) getTileAt(gridPosToRemove.getX(), gridPosToRemove.getY());
-			if (tile.eSpeedbump != null)
-				removeEntity(tile.eSpeedbump);
-			if (tile.eMarketStall != null)
-				removeEntity(tile.eMarketStall);
-			cachedCityTiles.remove(gridPosToRemove);
+
+		int dx = gridX - windowX, dy = gridY - windowY;
+		if (dx == 0 && dy == 0)
+			return;
+		if (Math.abs(dx) >= WINDOW_WIDTH || Math.abs(dy) >= WINDOW_HEIGHT) {
+			clearWindow();
+		} else {
+			// Each column or row of the ring holds a single grid column or row
+			for (int i = 0; i < Math.abs(dx); i++) {
+				int column = Math.floorMod(dx > 0 ? windowX - WINDOW_HALF_WIDTH + i : windowX + WINDOW_HALF_WIDTH - i,
+						WINDOW_WIDTH);
+				for (int row = 0; row < WINDOW_HEIGHT; row++)
+					dropTile(column + row * WINDOW_WIDTH);
+			}
+			for (int i = 0; i < Math.abs(dy); i++) {
+				int row = Math.floorMod(dy > 0 ? windowY - WINDOW_HALF_HEIGHT + i : windowY + WINDOW_HALF_HEIGHT - i,
+						WINDOW_HEIGHT);
+				for (int column = 0; column < WINDOW_WIDTH; column++)
+					dropTile(column + row * WINDOW_WIDTH);
+			}
 		}
+		windowX = gridX;
+		windowY = gridY;
+	}
+
+	private void clearWindow() {
+		for (int slot = 0; slot < windowTiles.length; slot++)
+			dropTile(slot);
+		outsideTiles.forEach((x, y, tile) -> removeTileEntities(tile));
+		outsideTiles.clear();
+	}
+
+	private void dropTile(int slot) {
+		if (windowTiles[slot] != null) {
+			removeTileEntities(windowTiles[slot]);
+			windowTiles[slot] = null;
+		}
+	}
+
+	private void removeTileEntities(CityTile tile) {
+		if (tile.eSpeedbump != null)
+			removeEntity(tile.eSpeedbump);
+		if (tile.eMarketStall != null)
+			removeEntity(tile.eMarketStall);
 	}
 
 	/* Renvoit la categorie du cadrant de la tuile a cette pos */
 	public AutCategory whatsTheCategoryOfTile(PositionF pos) {
-		int gX = getGridPosFromPosCity(pos).getX();
-		int gY = getGridPosFromPosCity(pos).getY();
-		CityTile tile = (CityTile) getTileAt(gX, gY);
-
-		switch (whereInTile(pos)) {
-		case 0:
-			if (tile.genTile.collisionBox.topLeft)
-				return AutCategory.O;
-			else
-				return AutCategory.J;
-		case 1:
-			if (tile.genTile.collisionBox.top)
-				return AutCategory.O;
-			else
-				return AutCategory.J;
-		case 2:
-			if (tile.genTile.collisionBox.left)
-				return AutCategory.O;
-			else
-				return AutCategory.J;
-		case 3:
-			return AutCategory.O;
-		default:
-			System.out.println("panic");
-		}
-		return null;
+		PositionI gridPos = getGridPosFromPosCity(pos);
+		int collision = worldGenerator.getCollisionBits(gridPos.getX(), gridPos.getY()) | BOTTOM_RIGHT_BIT;
+		return (collision & QUADRANT_BITS[whereInTile(pos)]) != 0 ? AutCategory.O : AutCategory.J;
 	}
 
 	/* Fct qui renvoit le cadrant parmi les 4 d'une tuile de la ville */
@@ -226,10 +293,12 @@ public class CityScene extends Scene {
 		PositionI cookCarCell = cookCar.getPosition().divFloor(20);
 		worldGenerator.markMarketAsSeen(cookCarCell.getX(), cookCarCell.getY());
 
-		Optional<LocatedMarket> optMarket = worldGenerator.locateMarkets(cookCarCell.getX(), cookCarCell.getY())
-				.findFirst();
+		Optional<LocatedMarket> optMarket = worldGenerator.locateNearestMarket(cookCarCell.getX(),
+				cookCarCell.getY());
 
-		assert optMarket.isPresent();
+		// No market around: the arrow keeps pointing at the last one
+		if (optMarket.isEmpty())
+			return nearestMarketPos;
 		LocatedMarket market = optMarket.get();
 		return new PositionI(market.x, market.y);
 	}
@@ -299,6 +368,6 @@ public class CityScene extends Scene {
 	}
 
 	public void addToMarketCache(int gridX, int gridY) {
-		this.cacheMarketVisited.add(new PositionI(gridX, gridY));
+		this.cacheMarketVisited.add(gridX, gridY);
 	}
 }
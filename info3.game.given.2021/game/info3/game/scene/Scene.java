@@ -1,11 +1,17 @@
 package info3.game.scene;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
 
 import info3.game.Game;
 import info3.game.entity.Entity;
 import info3.game.entity.Tile;
 import info3.game.graphics.Graphics;
+import info3.game.position.GridMap;
 import info3.game.position.PositionF;
 import info3.game.position.PositionI;
 
@@ -13,27 +19,233 @@ public abstract class Scene {
 
 	public final Game game;
 
+	// Tuned for the gameplay: more cars and cockroaches make the levels
+	// unplayable, whatever the cost of the neighbour queries
 	public static final int MAXIMUM_ENTITIES = 30;
+	// Side of the cells of the spatial hash, in pixels
+	public static final int SPATIAL_CELL_SIZE = 20;
+	// Past this many entities, their conditions are evaluated in parallel
+	public static final int PARALLEL_SELECTION_THRESHOLD = 64;
+	// Seed of the random choices of the automata, to replay them. They are
+	// seeded from the clock if not set.
+	public static final String AUTOMATA_SEED_PROPERTY = "patatruck.automataSeed";
 
 	protected final int pixelWidth, pixelHeight;
+	// Changed through addEntity, removeEntity and clearEntities only, to keep
+	// the spatial hash up to date
 	public final ArrayList<Entity> entityList = new ArrayList<>();
+	// Entities by cell of SPATIAL_CELL_SIZE pixels, in every cell their square
+	// covers. Empty cells are removed.
+	private final GridMap<SpatialCell> spatialHash = new GridMap<>();
+	private final Map<Entity, SpatialEntry> spatialEntries = new IdentityHashMap<>();
+	// Order of the next entity added, to return them in the order of entityList
+	private long nextSpatialOrder = 0;
+	private final SplittableRandom random;
+	// Incremented when an entity is added, removed, moved, turned or changes of
+	// category, to wake up the entities whose conditions depend on them. The
+	// cells covered by the entity take the new value.
+	private long occupancyEpoch = 0;
+	// Value of occupancyEpoch when the entities were last cleared
+	private long clearEpoch = 0;
 
 	public Scene(int pixelWidth, int pixelHeight, Game g) {
 		this.pixelWidth = pixelWidth;
 		this.pixelHeight = pixelHeight;
 		game = g;
+		Long seed = Long.getLong(AUTOMATA_SEED_PROPERTY);
+		random = seed == null ? new SplittableRandom() : new SplittableRandom(seed);
+	}
+
+	/**
+	 * @return A generator for a new entity, independent from the others. The
+	 *         entities get the same sequences if they are created in the same
+	 *         order.
+	 */
+	public SplittableRandom splitRandom() {
+		return random.split();
 	}
 
 	public boolean addEntity(Entity entity) {
+		occupancyEpoch++;
+		SpatialEntry entry = new SpatialEntry(entity, nextSpatialOrder++);
+		SpatialEntry previous = spatialEntries.put(entity, entry);
+		if (previous != null)
+			unhash(previous);
+		hash(entry);
 		return entityList.add(entity);
 	}
 
 	public boolean removeEntity(Entity entity) {
-		return entityList.remove(entity);
+		occupancyEpoch++;
+		boolean removed = entityList.remove(entity);
+		// Entities added twice stay in the hash until they are all removed
+		if (removed && !entityList.contains(entity)) {
+			SpatialEntry entry = spatialEntries.remove(entity);
+			if (entry != null)
+				unhash(entry);
+		}
+		return removed;
+	}
+
+	public void clearEntities() {
+		clearEpoch = ++occupancyEpoch;
+		entityList.clear();
+		spatialHash.clear();
+		spatialEntries.clear();
+	}
+
+	/**
+	 * Moves this entity to the cells of its new position in the spatial hash. It
+	 * must be called whenever the position of an entity of the scene changes.
+	 */
+	public void entityMoved(Entity entity) {
+		occupancyEpoch++;
+		SpatialEntry entry = spatialEntries.get(entity);
+		if (entry == null)
+			return;
+		PositionF pos = entity.getPosition();
+		float size = entity.getSize();
+		if (pos != null && cell(pos.getX()) == entry.minX && cell(pos.getY()) == entry.minY
+				&& cell(pos.getX() + size) == entry.maxX && cell(pos.getY() + size) == entry.maxY) {
+			touch(entry);
+			return;
+		}
+		unhash(entry);
+		hash(entry);
+	}
+
+	/**
+	 * @return The entities whose square may overlap this rectangle, in the order
+	 *         of {@link #entityList}. It can contain entities a bit farther, the
+	 *         exact position must still be checked.
+	 */
+	public List<Entity> getEntitiesIn(float minX, float minY, float maxX, float maxY) {
+		return getEntitiesIn(minX, minY, maxX, maxY, null);
+	}
+
+	/**
+	 * Like {@link #getEntitiesIn(float, float, float, float)}, and adds the cells
+	 * read to these probed cells if not null
+	 */
+	public List<Entity> getEntitiesIn(float minX, float minY, float maxX, float maxY, ProbedCells probes) {
+		List<SpatialEntry> found = new ArrayList<>();
+		for (int y = cell(minY); y <= cell(maxY); y++) {
+			for (int x = cell(minX); x <= cell(maxX); x++) {
+				SpatialCell cell = spatialHash.get(x, y);
+				if (probes != null)
+					probes.add(x, y, cell);
+				if (cell != null)
+					found.addAll(cell.entries);
+			}
+		}
+		found.sort((a, b) -> Long.compare(a.order, b.order));
+
+		List<Entity> entities = new ArrayList<>(found.size());
+		SpatialEntry last = null;
+		for (SpatialEntry entry : found) {
+			// Entities covering several cells are found once per cell
+			if (entry != last)
+				entities.add(entry.entity);
+			last = entry;
+		}
+		return entities;
+	}
+
+	private static int cell(float coordinate) {
+		return (int) Math.floor(coordinate / SPATIAL_CELL_SIZE);
+	}
+
+	private void hash(SpatialEntry entry) {
+		PositionF pos = entry.entity.getPosition();
+		if (pos == null) {
+			entry.minX = 0;
+			entry.maxX = -1;
+			return;
+		}
+		float size = entry.entity.getSize();
+		entry.minX = cell(pos.getX());
+		entry.minY = cell(pos.getY());
+		entry.maxX = cell(pos.getX() + size);
+		entry.maxY = cell(pos.getY() + size);
+		for (int y = entry.minY; y <= entry.maxY; y++) {
+			for (int x = entry.minX; x <= entry.maxX; x++) {
+				SpatialCell cell = spatialHash.get(x, y);
+				if (cell == null) {
+					cell = new SpatialCell();
+					spatialHash.put(x, y, cell);
+				}
+				cell.entries.add(entry);
+				cell.epoch = occupancyEpoch;
+			}
+		}
+	}
+
+	private void unhash(SpatialEntry entry) {
+		for (int y = entry.minY; y <= entry.maxY; y++) {
+			for (int x = entry.minX; x <= entry.maxX; x++) {
+				SpatialCell cell = spatialHash.get(x, y);
+				if (cell == null)
+					continue;
+				cell.entries.remove(entry);
+				cell.epoch = occupancyEpoch;
+				if (cell.entries.isEmpty())
+					spatialHash.remove(x, y);
+			}
+		}
+	}
+
+	private void touch(SpatialEntry entry) {
+		for (int y = entry.minY; y <= entry.maxY; y++) {
+			for (int x = entry.minX; x <= entry.maxX; x++) {
+				SpatialCell cell = spatialHash.get(x, y);
+				if (cell != null)
+					cell.epoch = occupancyEpoch;
+			}
+		}
+	}
+
+	public long getOccupancyEpoch() {
+		return occupancyEpoch;
+	}
+
+	/**
+	 * Must be called when the direction or the category of this entity changes
+	 */
+	public void occupancyChanged(Entity entity) {
+		occupancyEpoch++;
+		SpatialEntry entry = spatialEntries.get(entity);
+		if (entry != null)
+			touch(entry);
 	}
 
+	/**
+	 * @param epoch A value of {@link #getOccupancyEpoch} read before the cells
+	 *              were probed
+	 * @return true if an entity entered, left or changed in one of these cells
+	 *         since then
+	 */
+	public boolean changedSince(ProbedCells probes, long epoch) {
+		if (epoch < clearEpoch)
+			return true;
+		for (int i = 0; i < probes.count; i++) {
+			// An emptied cell is removed, and a new one is created if it fills again
+			SpatialCell cell = spatialHash.get(probes.xs[i], probes.ys[i]);
+			if (cell != probes.cells[i] || cell != null && cell.epoch > epoch)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * With many entities, the tick has two phases. The conditions of the
+	 * entities that allow it are first evaluated in parallel, while nothing
+	 * changes in the scene. Then the entities are ticked one after another as
+	 * usual, firing the selected transitions.
+	 */
 	public void tick(long elapsed) {
 		ArrayList<Entity> entityListBuffered = new ArrayList<>(entityList);
+		if (entityListBuffered.size() >= PARALLEL_SELECTION_THRESHOLD)
+			entityListBuffered.parallelStream().filter(Entity::canSelectInParallel).forEach(Entity::selectTransition);
 		for (Entity entity : entityListBuffered) {
 			entity.tick(elapsed);
 		}
@@ -63,6 +275,13 @@ public abstract class Scene {
 		return 0xffffff;
 	}
 
+	/**
+	 * Called before rendering with the cells that are about to be fetched with
+	 * {@link #getTileAt}, so that they can be prepared all at once
+	 */
+	protected void loadRegion(int minX, int minY, int w, int h) {
+	}
+
 	public void render(Graphics g) {
 		g.fill(getBackgroundColor());
 
@@ -70,6 +289,7 @@ public abstract class Scene {
 		final PositionF origin = getOriginOffset();
 		PositionI min = getOriginOffset().divFloor(tileWidth).add(new PositionI(-1, -1));
 		PositionI max = min.add(new PositionI(pixelWidth / tileWidth + 3, pixelHeight / tileWidth + 3));
+		loadRegion(min.getX(), min.getY(), max.getX() - min.getX(), max.getY() - min.getY());
 
 		for (int y = min.getY(); y < max.getY(); y++) {
 			for (int x = min.getX(); x < max.getX(); x++) {
@@ -94,4 +314,52 @@ public abstract class Scene {
 	public int getNbEntities() {
 		return entityList.size();
 	}
+
+	/**
+	 * Cells of the spatial hash that an entity read, with what they held then
+	 */
+	public static final class ProbedCells {
+		private int count = 0;
+		private int[] xs = new int[8], ys = new int[8];
+		private SpatialCell[] cells = new SpatialCell[8];
+
+		public void clear() {
+			Arrays.fill(cells, 0, count, null);
+			count = 0;
+		}
+
+		private void add(int x, int y, SpatialCell cell) {
+			// Conditions often probe the same cells again
+			for (int i = 0; i < count; i++) {
+				if (xs[i] == x && ys[i] == y)
+					return;
+			}
+			if (count == xs.length) {
+				xs = Arrays.copyOf(xs, count * 2);
+				ys = Arrays.copyOf(ys, count * 2);
+				cells = Arrays.copyOf(cells, count * 2);
+			}
+			xs[count] = x;
+			ys[count] = y;
+			cells[count++] = cell;
+		}
+	}
+
+	private static final class SpatialCell {
+		final ArrayList<SpatialEntry> entries = new ArrayList<>(2);
+		// Value of occupancyEpoch when an entity of this cell last changed
+		long epoch;
+	}
+
+	private static final class SpatialEntry {
+		final Entity entity;
+		final long order;
+		// Cells covered by the entity, none if maxX < minX
+		int minX, minY, maxX, maxY;
+
+		SpatialEntry(Entity entity, long order) {
+			this.entity = entity;
+			this.order = order;
+		}
+	}
 }
@@ -93,11 +93,11 @@ public class AutomatonSelectionScreen extends Screen {
 	}
 
 	private void saveAndClose() {
-		game.boundAutomata = new HashMap<>();
-
+		Map<EntityType, String> boundAutomata = new HashMap<>();
 		for (Map.Entry<EntityType, Integer> entry : selection.entrySet()) {
-			game.boundAutomata.put(entry.getKey(), allAutomata.get(entry.getValue()));
+			boundAutomata.put(entry.getKey(), allAutomata.get(entry.getValue()).name);
 		}
+		game.bindAutomata(boundAutomata);
 
 		changeScreen(new GameScreen(game));
 	}
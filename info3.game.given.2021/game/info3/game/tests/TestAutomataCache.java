@@ -0,0 +1,145 @@
+package info3.game.tests;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import info3.game.automata.ActionTable;
+import info3.game.automata.AndCondition;
+import info3.game.automata.AutomataCache;
+import info3.game.automata.GAutomaton;
+import info3.game.automata.GFunCall;
+import info3.game.automata.GState;
+import info3.game.automata.GTransition;
+import info3.game.automata.IFunction;
+import info3.game.automata.NotCondition;
+import info3.game.automata.OrCondition;
+
+/**
+ * Writes automata to an {@link AutomataCache} and checks that they are read
+ * back with the same states, transitions and calls. Run with {@code java -ea}.
+ */
+public class TestAutomataCache {
+	public static void main(String[] args) throws IOException {
+		Path directory = Files.createTempDirectory("automata-cache");
+		try {
+			System.setProperty(AutomataCache.PROPERTY, directory.toString());
+			AutomataCache cache = AutomataCache.fromProperty();
+			System.clearProperty(AutomataCache.PROPERTY);
+			assert AutomataCache.fromProperty() == null;
+
+			byte[] hash = AutomataCache.hash("source".getBytes(StandardCharsets.UTF_8));
+			assert cache.read("test.gal", hash) == null;
+
+			List<GAutomaton> automata = List.of(buildCar(), buildCook());
+			cache.write("test.gal", hash, automata);
+			List<GAutomaton> read = cache.read("test.gal", hash);
+			assert read != null && read.size() == automata.size();
+			for (int i = 0; i < automata.size(); i++)
+				assertSame(automata.get(i), read.get(i));
+
+			// Calls with defaulted parameters are stored with the resolved ones
+			GTransition pop = read.get(1).initial.transitions.get(0);
+			assert pop.actions.getAction(0).toString().equals("Pop[F]");
+			assert pop.actions.getAction(1).toString().equals("Turn[R]");
+
+			// Another source, or a damaged file, is parsed again
+			assert cache.read("test.gal", AutomataCache.hash("other".getBytes(StandardCharsets.UTF_8))) == null;
+			Path file = directory.resolve("test.gal.bin");
+			byte[] content = Files.readAllBytes(file);
+			Files.write(file, Arrays.copyOf(content, content.length / 2));
+			assert cache.read("test.gal", hash) == null;
+		} finally {
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+
+		System.out.println("Everything works");
+	}
+
+	private static IFunction call(String name, String... params) {
+		return GFunCall.create(name, List.of(params), -1);
+	}
+
+	private static Map<IFunction, Integer> actions(Object... weightedActions) {
+		Map<IFunction, Integer> actions = new LinkedHashMap<>();
+		for (int i = 0; i < weightedActions.length; i += 2)
+			actions.put((IFunction) weightedActions[i], (Integer) weightedActions[i + 1]);
+		return actions;
+	}
+
+	/**
+	 * Weighted actions, nested conditions, and a state that is only a target
+	 */
+	private static GAutomaton buildCar() {
+		GState drive = new GState("Drive"), stop = new GState("Stop"), crash = new GState("Crash");
+		drive.addTransition(new GTransition(actions(GFunCall.create("Wait", List.of(), 100), 100),
+				call("Cell", "H", "@"), stop));
+		drive.addTransition(new GTransition(
+				actions(GFunCall.create("Move", List.of("L"), 2), 2, GFunCall.create("Move", List.of("B"), 96), 96),
+				new AndCondition(call("Cell", "F", "_"), new OrCondition(new NotCondition(call("Key", "SPACE")),
+						call("Closest", "A", "N"))),
+				drive));
+		drive.addTransition(new GTransition(actions(), new NotCondition(call("MyDir", "E")), crash));
+		stop.addTransition(new GTransition(actions(), call("True"), drive));
+		return new GAutomaton(drive, "Car", new ArrayList<>(List.of(drive, stop)));
+	}
+
+	/**
+	 * Defaulted parameters, and a transition to any state
+	 */
+	private static GAutomaton buildCook() {
+		GState idle = new GState("Idle"), any = new GState("_");
+		idle.addTransition(new GTransition(actions(GFunCall.create("Pop", List.of(), 40), 40,
+				GFunCall.create("Turn", List.of(), 60), 60), call("GotStuff"), any));
+		idle.addTransition(new GTransition(actions(GFunCall.create("Explode", List.of(), 100), 100),
+				new OrCondition(call("GotPower"), call("True")), idle));
+		return new GAutomaton(idle, "Cook", new ArrayList<>(List.of(idle, any)));
+	}
+
+	private static void assertSame(GAutomaton expected, GAutomaton actual) {
+		assert expected.name.equals(actual.name);
+		assert expected.states.size() == actual.states.size();
+		for (int s = 0; s < expected.states.size(); s++)
+			assert expected.states.get(s).name.equals(actual.states.get(s).name);
+		assertSame(expected.initial, actual.initial, new ArrayList<>());
+	}
+
+	/**
+	 * Compares the states reachable from these ones
+	 */
+	private static void assertSame(GState expected, GState actual, List<GState> compared) {
+		for (GState state : compared) {
+			if (state == expected)
+				return;
+		}
+		compared.add(expected);
+
+		assert expected.name.equals(actual.name);
+		assert expected.transitions.size() == actual.transitions.size();
+		for (int t = 0; t < expected.transitions.size(); t++) {
+			GTransition expectedTransition = expected.transitions.get(t);
+			GTransition actualTransition = actual.transitions.get(t);
+			assert expectedTransition.condition.toString().equals(actualTransition.condition.toString());
+			assertSame(expectedTransition.actions, actualTransition.actions);
+			assertSame(expectedTransition.destination, actualTransition.destination, compared);
+		}
+	}
+
+	private static void assertSame(ActionTable expected, ActionTable actual) {
+		assert expected.size() == actual.size();
+		for (int i = 0; i < expected.size(); i++) {
+			assert expected.getAction(i).toString().equals(actual.getAction(i).toString());
+			assert expected.getCumulativeWeight(i) == actual.getCumulativeWeight(i);
+		}
+	}
+}
@@ -0,0 +1,292 @@
+package info3.game.tests;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import info3.game.automata.AndCondition;
+import info3.game.automata.AutomatonListener;
+import info3.game.automata.CompiledAutomaton;
+import info3.game.automata.GAutomaton;
+import info3.game.automata.GFunCall;
+import info3.game.automata.GState;
+import info3.game.automata.GTransition;
+import info3.game.automata.IFunction;
+import info3.game.automata.NotCondition;
+import info3.game.automata.OrCondition;
+import info3.game.position.AutCategory;
+import info3.game.position.AutDirection;
+import info3.game.position.AutKey;
+
+/**
+ * Checks that the interpreter of {@link CompiledAutomaton}, with its action
+ * tables and memo, and the generated classes take the same transitions as
+ * {@link GAutomaton#run}. The listener answers from random bits, and can turn
+ * on cell like the cook does. Run with {@code java -ea}.
+ */
+public class TestCompiledAutomaton {
+	// Set by AutomatonClassGenerator.PROPERTY
+	private static final String CODEGEN_PROPERTY = "patatruck.automataCodegen";
+
+	public static void main(String[] args) {
+		GAutomaton automaton = build();
+		System.setProperty(CODEGEN_PROPERTY, "false");
+		CompiledAutomaton interpreted = CompiledAutomaton.compile(automaton);
+		System.setProperty(CODEGEN_PROPERTY, "true");
+		CompiledAutomaton generated = CompiledAutomaton.compile(automaton);
+		System.clearProperty(CODEGEN_PROPERTY);
+		assert !interpreted.isGenerated();
+
+		// The memo is only used by listeners whose cell doesn't turn
+		int[] calls = compare(automaton, interpreted, false);
+		assert calls[1] < calls[0];
+		compare(automaton, interpreted, true);
+		compareTwoPhases(interpreted, interpreted);
+
+		if (generated.isGenerated()) {
+			compare(automaton, generated, false);
+			compare(automaton, generated, true);
+			compareTwoPhases(interpreted, generated);
+		} else {
+			System.out.println("No Java compiler, the generated classes aren't checked");
+		}
+
+		System.out.println("Everything works");
+	}
+
+	private static IFunction call(String name, String... params) {
+		return GFunCall.create(name, List.of(params), -1);
+	}
+
+	private static Map<IFunction, Integer> actions(Object... weightedActions) {
+		Map<IFunction, Integer> actions = new LinkedHashMap<>();
+		for (int i = 0; i < weightedActions.length; i += 2)
+			actions.put((IFunction) weightedActions[i], (Integer) weightedActions[i + 1]);
+		return actions;
+	}
+
+	/**
+	 * Repeated calls, weighted actions that can fail, and transitions to "_"
+	 */
+	private static GAutomaton build() {
+		GState drive = new GState("Drive"), stop = new GState("Stop"), slow = new GState("Slow"),
+				any = new GState("_");
+		IFunction wait = GFunCall.create("Wait", List.of(), 100);
+		drive.addTransition(new GTransition(actions(wait, 100), call("Cell", "H", "@"), stop));
+		drive.addTransition(new GTransition(actions(GFunCall.create("Protect", List.of("F"), 100), 100),
+				new OrCondition(call("Cell", "H", "D"), new NotCondition(call("Key", "SPACE"))), slow));
+		drive.addTransition(new GTransition(
+				actions(GFunCall.create("Move", List.of("L"), 2), 2, GFunCall.create("Move", List.of("B"), 96), 96),
+				new AndCondition(call("MyDir", "N"), call("Cell", "H", "A")), drive));
+		drive.addTransition(new GTransition(actions(GFunCall.create("Move", List.of("R"), 100), 100),
+				new AndCondition(call("Cell", "F", "O"), new NotCondition(call("Cell", "R", "O"))), drive));
+		drive.addTransition(new GTransition(actions(),
+				new AndCondition(new NotCondition(call("Cell", "F", "O")), call("MyDir", "E")), any));
+		stop.addTransition(new GTransition(actions(wait, 100), call("Cell", "H", "@"), stop));
+		stop.addTransition(new GTransition(actions(GFunCall.create("Pop", List.of(), 50), 50),
+				new AndCondition(call("GotStuff"), call("GotStuff")), drive));
+		stop.addTransition(new GTransition(actions(), call("True"), drive));
+		slow.addTransition(new GTransition(actions(GFunCall.create("Move", List.of("L"), 100), 100),
+				new AndCondition(call("Key", "Z"), call("Key", "Z")), drive));
+		slow.addTransition(new GTransition(actions(GFunCall.create("Wizz", List.of(), 30), 30),
+				new OrCondition(call("Key", "Z"), call("GotPower")), stop));
+		return new GAutomaton(drive, "Test", new ArrayList<>(List.of(drive, stop, slow, any)));
+	}
+
+	/**
+	 * Steps the automaton and the compiled one side by side, with the same draws
+	 *
+	 * @return The calls made to the listener by each of them
+	 */
+	private static int[] compare(GAutomaton automaton, CompiledAutomaton compiled, boolean turns) {
+		Random bits = new Random(1);
+		SplittableRandom random = new SplittableRandom(2), compiledRandom = new SplittableRandom(2);
+		Listener listener = new Listener(turns), compiledListener = new Listener(turns);
+		GState state = automaton.initial;
+		int compiledState = compiled.getInitialState();
+
+		for (int i = 0; i < 100000; i++) {
+			listener.bits = compiledListener.bits = bits.nextLong();
+			GState next = automaton.run(listener, random, state);
+			int compiledNext = compiled.step(compiledListener, compiledRandom, compiledState);
+			assert (next == null) == (compiledNext == CompiledAutomaton.NO_TRANSITION);
+			if (next != null) {
+				state = next;
+				compiledState = compiledNext;
+			}
+			assert state.name.equals(compiled.getStateName(compiledState));
+			// Calls with effects are made exactly like the automaton does, the
+			// other ones may be memoized
+			if (turns)
+				assert listener.trace.toString().equals(compiledListener.trace.toString());
+			listener.trace.setLength(0);
+			compiledListener.trace.setLength(0);
+		}
+		return new int[] { listener.calls, compiledListener.calls };
+	}
+
+	/**
+	 * Selects and fires the transitions in two phases, like sleeping entities
+	 * do, and compares them with the reference stepped at once
+	 */
+	private static void compareTwoPhases(CompiledAutomaton reference, CompiledAutomaton compiled) {
+		Random bits = new Random(3);
+		SplittableRandom random = new SplittableRandom(4), compiledRandom = new SplittableRandom(4);
+		Listener listener = new Listener(false), compiledListener = new Listener(false);
+		int state = reference.getInitialState(), compiledState = state;
+
+		for (int i = 0; i < 100000; i++) {
+			listener.bits = compiledListener.bits = bits.nextLong();
+			int next = reference.step(listener, random, state);
+			int transition = compiled.selectTransition(compiledListener, compiledState);
+			assert transition == reference.selectTransition(new Listener(false, listener.bits), state);
+			int compiledNext = compiled.stepFrom(compiledListener, compiledRandom, compiledState, transition);
+			assert next == compiledNext;
+			if (next != CompiledAutomaton.NO_TRANSITION)
+				state = compiledState = next;
+			// Every state is also entered from elsewhere
+			if (i % 7 == 0)
+				state = compiledState = i % reference.getStateCount();
+		}
+	}
+
+	/**
+	 * Answers from the bits of a number, one bit for each function and
+	 * parameters. The calls to cell are traced.
+	 */
+	private static class Listener implements AutomatonListener {
+		final boolean turns;
+		final StringBuilder trace = new StringBuilder();
+		long bits;
+		int calls;
+		// Absolute direction, changed by cell if it turns
+		int direction;
+
+		Listener(boolean turns) {
+			this.turns = turns;
+		}
+
+		Listener(boolean turns, long bits) {
+			this(turns);
+			this.bits = bits;
+		}
+
+		// Like the cook
+		@Override
+		public boolean canMemoizeConditions() {
+			return !turns;
+		}
+
+		private boolean answer(int bit) {
+			calls++;
+			return (bits >>> bit & 1) != 0;
+		}
+
+		@Override
+		public boolean pop(AutDirection direction) {
+			return answer(40);
+		}
+
+		@Override
+		public boolean wizz(AutDirection direction) {
+			return answer(41);
+		}
+
+		@Override
+		public boolean move(AutDirection direction) {
+			return answer(42 + direction.ordinal());
+		}
+
+		@Override
+		public boolean gwait() {
+			return answer(51);
+		}
+
+		@Override
+		public boolean egg(AutDirection direction) {
+			return true;
+		}
+
+		@Override
+		public boolean hit(AutDirection direction) {
+			return true;
+		}
+
+		@Override
+		public boolean jump(AutDirection direction) {
+			return true;
+		}
+
+		@Override
+		public boolean explode() {
+			return true;
+		}
+
+		@Override
+		public boolean pick(AutDirection direction) {
+			return true;
+		}
+
+		@Override
+		public boolean power() {
+			return true;
+		}
+
+		@Override
+		public boolean protect(AutDirection direction) {
+			return answer(52 + direction.ordinal());
+		}
+
+		@Override
+		public boolean store() {
+			return true;
+		}
+
+		@Override
+		public boolean turn(AutDirection direction) {
+			return true;
+		}
+
+		@Override
+		public boolean gthrow(AutDirection direction) {
+			return true;
+		}
+
+		@Override
+		public boolean cell(AutDirection direction, AutCategory category) {
+			if (turns)
+				this.direction = (this.direction + direction.ordinal()) % 4;
+			trace.append(direction).append(category).append(this.direction).append(';');
+			return answer((this.direction * 9 + direction.ordinal()) % 30 + category.ordinal() % 3);
+		}
+
+		@Override
+		public boolean key(AutKey key) {
+			return answer(32 + key.ordinal());
+		}
+
+		@Override
+		public boolean myDir(AutDirection direction) {
+			calls++;
+			return direction.ordinal() == this.direction;
+		}
+
+		@Override
+		public boolean closest(AutCategory category, AutDirection direction) {
+			return answer(61);
+		}
+
+		@Override
+		public boolean gotPower() {
+			return answer(62);
+		}
+
+		@Override
+		public boolean gotStuff() {
+			return answer(63);
+		}
+	}
+}
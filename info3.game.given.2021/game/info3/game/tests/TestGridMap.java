@@ -0,0 +1,68 @@
+package info3.game.tests;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import info3.game.position.GridMap;
+
+/**
+ * Checks {@link GridMap} against a {@link HashMap}, with few enough distinct
+ * cells that probe sequences cluster and wrap around the end of the table.
+ * Run with {@code java -ea}.
+ */
+public class TestGridMap {
+	public static void main(String[] args) {
+		Random random = new Random(42);
+		for (int round = 0; round < 20; round++) {
+			GridMap<Integer> map = new GridMap<>();
+			Map<Long, Integer> expected = new HashMap<>();
+			int range = 2 + random.nextInt(12);
+
+			for (int op = 0; op < 20000; op++) {
+				int x = random.nextInt(range) - range / 2;
+				int y = random.nextInt(range) - range / 2;
+				long key = GridMap.pack(x, y);
+				int choice = random.nextInt(10);
+				if (choice < 4) {
+					int value = random.nextInt();
+					assert same(map.put(x, y, value), expected.put(key, value));
+				} else if (choice < 8) {
+					assert same(map.remove(x, y), expected.remove(key));
+				} else if (choice < 9) {
+					// Removes about half of the entries at once
+					int parity = random.nextInt(2);
+					int removed = map.removeIf((cx, cy, value) -> (value & 1) == parity);
+					int before = expected.size();
+					expected.values().removeIf(value -> (value & 1) == parity);
+					assert removed == before - expected.size();
+				} else if (random.nextInt(200) == 0) {
+					map.clear();
+					expected.clear();
+				}
+
+				assert same(map.get(x, y), expected.get(key));
+				assert map.containsKey(x, y) == expected.containsKey(key);
+				assert map.size() == expected.size();
+			}
+
+			// Every remaining entry is still reachable after all the shifts
+			for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+				int x = GridMap.unpackX(entry.getKey()), y = GridMap.unpackY(entry.getKey());
+				assert entry.getValue().equals(map.get(x, y));
+			}
+			int[] count = { 0 };
+			map.forEach((x, y, value) -> {
+				assert value.equals(expected.get(GridMap.pack(x, y)));
+				count[0]++;
+			});
+			assert count[0] == expected.size();
+		}
+
+		System.out.println("Everything works");
+	}
+
+	private static boolean same(Integer a, Integer b) {
+		return a == null ? b == null : a.equals(b);
+	}
+}
@@ -1,24 +1,369 @@
 package info3.game.worldgen;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
+import info3.game.position.GridMap;
+
+/**
+ * Memoizes the results of an inner layer.
+ * <p>
+ * An unbounded cache keeps everything until {@link #clearCaches()}. A bounded
+ * cache evicts a quarter of its entries each time it grows past its capacity,
+ * picking either the least recently used ones or the ones farthest from the
+ * focus (see {@link Layer#setFocus(int, int)}).
+ * <p>
+ * The cache can be used from several threads. Entries are spread over stripes,
+ * each with its own map and lock, and capacity and eviction are handled per
+ * stripe. A missing key gets a placeholder while it is computed outside of the
+ * lock, so other threads asking for it wait for that value instead of
+ * computing it again.
+ * <p>
+ * Entries remember the seed they were computed for, and an entry of another
+ * seed is a miss, so a value still being computed for the previous seed is
+ * never returned once the seed changed.
+ */
 class Cache<E> implements Layer<E> {
+	enum Eviction {
+		LRU, DISTANCE,
+	}
+
+	private static final int STRIPES = 16;
+
 	private final Layer<E> inner;
-	private final Map<GridPos, E> cache = new HashMap<>();
+	private final Stripe<E>[] stripes;
+	private final int stripeCapacity;
+	private final Eviction eviction;
+
+	private volatile int focusX = 0, focusY = 0;
 
 	public Cache(Layer<E> inner) {
+		this(inner, Integer.MAX_VALUE, Eviction.LRU);
+	}
+
+	@SuppressWarnings("unchecked")
+	public Cache(Layer<E> inner, int capacity, Eviction eviction) {
+		assert capacity > 0;
 		this.inner = inner;
+		this.stripeCapacity = Math.max(1, capacity / STRIPES);
+		this.eviction = eviction;
+		stripes = (Stripe<E>[]) new Stripe<?>[STRIPES];
+		for (int i = 0; i < STRIPES; i++)
+			stripes[i] = new Stripe<>();
+	}
+
+	private Stripe<E> stripe(int x, int y) {
+		int hash = x * 0x9e3779b9 + y;
+		return stripes[(hash ^ hash >>> 16) & (STRIPES - 1)];
 	}
 
 	@Override
 	public E getAt(long seed, GridPos pos) {
-		return cache.computeIfAbsent(pos, k -> inner.getAt(seed, pos));
+		Stripe<E> stripe = stripe(pos.x, pos.y);
+		Entry<E> entry;
+		boolean claimed = false;
+		synchronized (stripe) {
+			entry = stripe.map.get(pos.x, pos.y);
+			if (entry != null && entry.seed == seed) {
+				stripe.hits++;
+				entry.lastUse = stripe.clock++;
+			} else {
+				stripe.misses++;
+				entry = new Entry<>(seed, stripe.clock++);
+				stripe.map.put(pos.x, pos.y, entry);
+				claimed = true;
+			}
+		}
+
+		// Another thread computes it, or already did
+		if (!claimed)
+			return entry.await();
+
+		try {
+			entry.complete(inner.getAt(seed, pos));
+		} catch (RuntimeException | Error e) {
+			remove(stripe, pos.x, pos.y, entry);
+			entry.fail(e);
+			throw e;
+		}
+		evictIfFull(stripe);
+		return entry.await();
+	}
+
+	/**
+	 * Missing tiles are claimed and computed by the inner layer as a single
+	 * region. Tiles that another thread is computing are waited for.
+	 */
+	@Override
+	public void getRegion(long seed, int minX, int minY, int w, int h, E[] out) {
+		@SuppressWarnings("unchecked")
+		Entry<E>[] entries = (Entry<E>[]) new Entry<?>[w * h];
+		boolean[] claimed = new boolean[w * h];
+		int claimedCount = 0;
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				Stripe<E> stripe = stripe(minX + x, minY + y);
+				synchronized (stripe) {
+					Entry<E> entry = stripe.map.get(minX + x, minY + y);
+					if (entry != null && entry.seed == seed) {
+						stripe.hits++;
+						entry.lastUse = stripe.clock++;
+					} else {
+						stripe.misses++;
+						entry = new Entry<>(seed, stripe.clock++);
+						stripe.map.put(minX + x, minY + y, entry);
+						claimed[x + y * w] = true;
+						claimedCount++;
+					}
+					entries[x + y * w] = entry;
+				}
+			}
+		}
+
+		if (claimedCount > 0) {
+			try {
+				computeClaimed(seed, minX, minY, w, h, out, entries, claimed);
+			} catch (RuntimeException | Error e) {
+				for (int i = 0; i < entries.length; i++) {
+					if (claimed[i] && !entries[i].isDone()) {
+						remove(stripe(minX + i % w, minY + i / w), minX + i % w, minY + i / w, entries[i]);
+						entries[i].fail(e);
+					}
+				}
+				throw e;
+			}
+			for (Stripe<E> stripe : stripes)
+				evictIfFull(stripe);
+		}
+
+		for (int i = 0; i < entries.length; i++)
+			out[i] = entries[i].await();
+	}
+
+	/**
+	 * Computes the claimed entries of a region, as a single region covering all
+	 * of them unless some tile of that region is being computed by another thread
+	 */
+	private void computeClaimed(long seed, int minX, int minY, int w, int h, E[] out, Entry<E>[] entries,
+			boolean[] claimed) {
+		int boxMinX = w, boxMinY = h, boxMaxX = -1, boxMaxY = -1;
+		for (int i = 0; i < entries.length; i++) {
+			if (claimed[i]) {
+				boxMinX = Math.min(boxMinX, i % w);
+				boxMinY = Math.min(boxMinY, i / w);
+				boxMaxX = Math.max(boxMaxX, i % w);
+				boxMaxY = Math.max(boxMaxY, i / w);
+			}
+		}
+
+		boolean othersPending = false;
+		for (int y = boxMinY; y <= boxMaxY; y++) {
+			for (int x = boxMinX; x <= boxMaxX; x++)
+				othersPending |= !claimed[x + y * w] && !entries[x + y * w].isDone();
+		}
+
+		if (othersPending) {
+			for (int i = 0; i < entries.length; i++) {
+				if (claimed[i])
+					entries[i].complete(inner.getAt(seed, new GridPos(minX + i % w, minY + i / w)));
+			}
+			return;
+		}
+
+		// Cached tiles inside the box are computed again, but only the claimed ones
+		// are stored
+		int boxW = boxMaxX - boxMinX + 1, boxH = boxMaxY - boxMinY + 1;
+		E[] computed = Arrays.copyOf(out, boxW * boxH);
+		inner.getRegion(seed, minX + boxMinX, minY + boxMinY, boxW, boxH, computed);
+		for (int y = 0; y < boxH; y++) {
+			for (int x = 0; x < boxW; x++) {
+				int i = boxMinX + x + (boxMinY + y) * w;
+				if (claimed[i])
+					entries[i].complete(computed[x + y * boxW]);
+			}
+		}
+	}
+
+	/**
+	 * @return true if this position is cached for this seed, without computing it
+	 *         otherwise
+	 */
+	public boolean contains(long seed, int x, int y) {
+		Stripe<E> stripe = stripe(x, y);
+		synchronized (stripe) {
+			Entry<E> entry = stripe.map.get(x, y);
+			return entry != null && entry.seed == seed && entry.isDone();
+		}
+	}
+
+	private void remove(Stripe<E> stripe, int x, int y, Entry<E> entry) {
+		synchronized (stripe) {
+			if (stripe.map.get(x, y) == entry)
+				stripe.map.remove(x, y);
+		}
+	}
+
+	private void evictIfFull(Stripe<E> stripe) {
+		synchronized (stripe) {
+			if (stripe.map.size() > stripeCapacity)
+				evict(stripe, stripe.map.size() - stripeCapacity * 3 / 4);
+		}
+	}
+
+	/**
+	 * Must hold the lock of the stripe. Entries that are still being computed
+	 * are never evicted.
+	 */
+	private void evict(Stripe<E> stripe, int count) {
+		long[] scores = new long[stripe.map.size()];
+		int[] i = { 0 };
+		stripe.map.forEach((x, y, entry) -> {
+			if (entry.isDone())
+				scores[i[0]++] = score(x, y, entry);
+		});
+		if (i[0] == 0)
+			return;
+		Arrays.sort(scores, 0, i[0]);
+		long threshold = scores[Math.min(count, i[0]) - 1];
+		stripe.evictions += stripe.map
+				.removeIf((x, y, entry) -> entry.isDone() && score(x, y, entry) <= threshold);
+	}
+
+	/**
+	 * Entries with the lowest score are evicted first
+	 */
+	private long score(int x, int y, Entry<E> entry) {
+		if (eviction == Eviction.DISTANCE) {
+			long dx = x - focusX, dy = y - focusY;
+			return -(dx * dx + dy * dy);
+		}
+		return entry.lastUse;
+	}
+
+	@Override
+	public void setFocus(int x, int y) {
+		focusX = x;
+		focusY = y;
+		inner.setFocus(x, y);
 	}
 
 	@Override
 	public void clearCaches() {
-		cache.clear();
+		for (Stripe<E> stripe : stripes) {
+			synchronized (stripe) {
+				stripe.map.clear();
+			}
+		}
 		inner.clearCaches();
 	}
+
+	public long getHits() {
+		long hits = 0;
+		for (Stripe<E> stripe : stripes) {
+			synchronized (stripe) {
+				hits += stripe.hits;
+			}
+		}
+		return hits;
+	}
+
+	public long getMisses() {
+		long misses = 0;
+		for (Stripe<E> stripe : stripes) {
+			synchronized (stripe) {
+				misses += stripe.misses;
+			}
+		}
+		return misses;
+	}
+
+	public long getEvictions() {
+		long evictions = 0;
+		for (Stripe<E> stripe : stripes) {
+			synchronized (stripe) {
+				evictions += stripe.evictions;
+			}
+		}
+		return evictions;
+	}
+
+	public int size() {
+		int size = 0;
+		for (Stripe<E> stripe : stripes) {
+			synchronized (stripe) {
+				size += stripe.map.size();
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return "Cache{size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions="
+				+ getEvictions() + '}';
+	}
+
+	/**
+	 * Part of the cache, guarded by its own monitor
+	 */
+	private static final class Stripe<E> {
+		final GridMap<Entry<E>> map = new GridMap<>();
+		long clock = 0;
+		long hits = 0, misses = 0, evictions = 0;
+	}
+
+	/**
+	 * A cached value, or a placeholder while the thread that created it computes
+	 * the value. That thread must not ask for the same key while computing it.
+	 */
+	private static final class Entry<E> {
+		final long seed;
+		// Guarded by the stripe
+		long lastUse;
+
+		private volatile boolean done = false;
+		private E value;
+		private Throwable failure;
+
+		Entry(long seed, long lastUse) {
+			this.seed = seed;
+			this.lastUse = lastUse;
+		}
+
+		boolean isDone() {
+			return done;
+		}
+
+		synchronized void complete(E value) {
+			this.value = value;
+			done = true;
+			notifyAll();
+		}
+
+		synchronized void fail(Throwable failure) {
+			this.failure = failure;
+			done = true;
+			notifyAll();
+		}
+
+		E await() {
+			if (done && failure == null)
+				return value;
+
+			synchronized (this) {
+				boolean interrupted = false;
+				while (!done) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+				if (interrupted)
+					Thread.currentThread().interrupt();
+				if (failure != null)
+					throw new IllegalStateException("Failed to compute a cached value", failure);
+				return value;
+			}
+		}
+	}
 }
@@ -2,52 +2,93 @@ package info3.game.worldgen;
 
 import static info3.game.worldgen.WorldGenerator.CHUNK_SIZE;
 
-import java.util.HashSet;
-import java.util.Random;
-import java.util.Set;
-
+/**
+ * Undecorated tiles of a chunk, packed in an int array (see
+ * {@link GenTile#packed()}). {@link GenTile#unpack} gives back the shared tiles.
+ */
 class Chunk {
-	private final GenTile[] tiles = new GenTile[CHUNK_SIZE * CHUNK_SIZE];
-	// Caches empty cells for better speed
-	private Set<GridPos> emptyCells;
-
-	public GridPos getRandomEmptyCell(Random rng) {
-		if (emptyCells == null) {
-			emptyCells = new HashSet<>();
+	private final int[] cells = new int[CHUNK_SIZE * CHUNK_SIZE];
+	// Cells where a building can be rooted: the first freeCount ones of freeCells,
+	// in any order. freeIndex is the position of each cell in freeCells (or -1),
+	// so that a cell is removed by swapping it with the last free one. Only
+	// allocated while the chunk is being built.
+	private int[] freeCells, freeIndex;
+	private int freeCount;
+	// Cells covered by a building, as a bitset
+	private final long[] occupied = new long[CHUNK_SIZE * CHUNK_SIZE / Long.SIZE];
 
-			for (int i = 0; i < tiles.length; i++) {
-				if (tiles[i] == null)
-					emptyCells.add(new GridPos(Math.floorMod(i, CHUNK_SIZE), i / CHUNK_SIZE));
+	/**
+	 * @param random A random value, see {@link Utils}
+	 * @return The local offset of a random free cell, which won't be returned
+	 *         again, or -1 once every cell is covered
+	 */
+	int takeRandomFreeCell(long random) {
+		if (freeCells == null) {
+			freeCells = new int[cells.length];
+			freeIndex = new int[cells.length];
+			for (int i = 0; i < cells.length; i++) {
+				if ((occupied[i / Long.SIZE] & 1L << i) == 0) {
+					freeIndex[i] = freeCount;
+					freeCells[freeCount++] = i;
+				} else {
+					freeIndex[i] = -1;
+				}
 			}
 		}
 
-		if (emptyCells.isEmpty())
-			return null;
+		if (freeCount == 0) {
+			freeCells = freeIndex = null;
+			return -1;
+		}
 
-		int index = rng.nextInt(emptyCells.size());
-		GridPos pos = emptyCells.stream().skip(index).findFirst().orElseThrow();
-		emptyCells.remove(pos);
-		return pos;
+		int cell = freeCells[Utils.bounded(random, freeCount)];
+		removeFreeCell(cell);
+		return cell;
 	}
 
-	public void setBuilding(GridPos pos, GenTile tile) {
-		assert pos.x >= 0 && pos.x < CHUNK_SIZE;
-		assert pos.y >= 0 && pos.y < CHUNK_SIZE;
+	private void removeFreeCell(int cell) {
+		int index = freeIndex[cell];
+		if (index < 0)
+			return;
 
-		int localOffset = pos.x + pos.y * CHUNK_SIZE;
+		int last = freeCells[--freeCount];
+		freeCells[index] = last;
+		freeIndex[last] = index;
+		freeIndex[cell] = -1;
+	}
+
+	/**
+	 * @param mask Cells as a bitset, like {@link RootedBuilding} masks
+	 * @return true if none of these cells is covered by a building
+	 */
+	boolean isFree(long[] mask) {
+		for (int i = 0; i < occupied.length; i++) {
+			if ((occupied[i] & mask[i]) != 0)
+				return false;
+		}
+		return true;
+	}
 
-		assert tiles[localOffset] == null : "attempt to overwrite chunk tile";
+	void setBuilding(int localOffset, GenTile tile) {
+		assert (occupied[localOffset / Long.SIZE] & 1L << localOffset) == 0 : "attempt to overwrite chunk tile";
 
-		tiles[localOffset] = tile;
-		if (emptyCells != null)
-			emptyCells.remove(pos);
+		cells[localOffset] = tile.packed();
+		occupied[localOffset / Long.SIZE] |= 1L << localOffset;
+		if (freeCells != null)
+			removeFreeCell(localOffset);
 	}
 
-	public boolean isCellFree(GridPos pos) {
-		return pos.isWithin(0, CHUNK_SIZE, 0, CHUNK_SIZE) && tiles[pos.x + pos.y * CHUNK_SIZE] == null;
+	/**
+	 * Sets a cell from its packed representation
+	 */
+	void setCell(int localOffset, int cell) {
+		cells[localOffset] = cell;
 	}
 
-	public GenTile[] getRaw() {
-		return tiles;
+	/**
+	 * @return The packed cells, row by row. Must not be modified.
+	 */
+	public int[] getCells() {
+		return cells;
 	}
 }
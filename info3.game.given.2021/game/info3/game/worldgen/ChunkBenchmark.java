@@ -0,0 +1,43 @@
+package info3.game.worldgen;
+
+/**
+ * Measures how many chunks {@link ChunkLayer} generates per second.
+ * <p>
+ * Run with {@code java info3.game.worldgen.ChunkBenchmark [seconds]}.
+ */
+public class ChunkBenchmark {
+	private static final int WARMUP_CHUNKS = 20_000;
+
+	public static void main(String[] args) {
+		double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 5;
+		ChunkLayer layer = new ChunkLayer();
+
+		// Lets the JIT compile the generation before measuring it
+		long checksum = generate(layer, 0, WARMUP_CHUNKS);
+
+		long chunks = 0;
+		long start = System.nanoTime();
+		long deadline = start + (long) (seconds * 1e9);
+		while (System.nanoTime() < deadline) {
+			checksum += generate(layer, WARMUP_CHUNKS + chunks, 1000);
+			chunks += 1000;
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("%d chunks in %.2fs: %.0f chunks/s (checksum %d)%n", chunks, elapsed, chunks / elapsed,
+				checksum);
+	}
+
+	/**
+	 * @return A value depending on the generated tiles, so that the generation
+	 *         can't be optimized away
+	 */
+	private static long generate(ChunkLayer layer, long first, int count) {
+		long checksum = 0;
+		for (long i = first; i < first + count; i++) {
+			Chunk chunk = layer.getAt(42, new GridPos((int) (i % 1024), (int) (i / 1024)));
+			checksum += chunk.getCells()[(int) (i & 0xff)];
+		}
+		return checksum;
+	}
+}
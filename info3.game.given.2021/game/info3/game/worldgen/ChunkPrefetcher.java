@@ -0,0 +1,115 @@
+package info3.game.worldgen;
+
+import static info3.game.worldgen.WorldGenerator.CHUNK_SIZE_LOG;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+import info3.game.position.GridMap;
+
+/**
+ * Generates chunks ahead of the player on background threads.
+ * <p>
+ * {@link #prefetch} predicts where the player will be in a few seconds and
+ * submits the chunks around that point to a worker pool. Finished chunks are
+ * published in a concurrent map, which {@link #getAt} reads without ever
+ * waiting: a chunk that isn't finished yet is generated synchronously, as if
+ * there was no prefetcher.
+ * <p>
+ * The inner layer is called from worker threads, so it must not have any
+ * mutable state (which is the case of {@link ChunkLayer}).
+ */
+class ChunkPrefetcher implements Layer<Chunk> {
+	// How far ahead the player position is extrapolated
+	private static final int LOOKAHEAD_TICKS = 120;
+	// Half size of the area around the predicted position that should be ready,
+	// in tiles (slightly larger than half the viewport)
+	private static final int MARGIN_X = 9, MARGIN_Y = 6;
+	// Chunks that are farther than that from the focus are not worth keeping
+	private static final int MAX_DISTANCE = 3;
+
+	private static final ForkJoinPool POOL = new ForkJoinPool(
+			Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
+	private final Layer<Chunk> inner;
+	private final ConcurrentHashMap<Long, CompletableFuture<Chunk>> prefetched = new ConcurrentHashMap<>();
+	// Seed of the chunks in `prefetched`
+	private volatile long seed;
+
+	private final LongAdder hits = new LongAdder(), misses = new LongAdder();
+
+	ChunkPrefetcher(Layer<Chunk> inner) {
+		this.inner = inner;
+	}
+
+	@Override
+	public Chunk getAt(long seed, GridPos pos) {
+		CompletableFuture<Chunk> future = prefetched.remove(GridMap.pack(pos.x, pos.y));
+		if (future != null && seed == this.seed && future.isDone() && !future.isCompletedExceptionally()) {
+			hits.increment();
+			return future.join();
+		}
+
+		misses.increment();
+		return inner.getAt(seed, pos);
+	}
+
+	/**
+	 * Starts generating the chunks that will soon be needed around the player
+	 *
+	 * @param gridX     Current tile of the player
+	 * @param gridY     Current tile of the player
+	 * @param velX      Velocity of the player, in tiles per tick
+	 * @param velY      Velocity of the player, in tiles per tick
+	 * @param isPresent Tells if a chunk is already available without generating
+	 *                  it, in which case it isn't submitted
+	 */
+	void prefetch(long seed, int gridX, int gridY, double velX, double velY, ChunkPredicate isPresent) {
+		if (seed != this.seed) {
+			prefetched.clear();
+			this.seed = seed;
+		}
+
+		int predictedX = gridX + (int) Math.round(velX * LOOKAHEAD_TICKS);
+		int predictedY = gridY + (int) Math.round(velY * LOOKAHEAD_TICKS);
+		int minChunkX = (predictedX - MARGIN_X) >> CHUNK_SIZE_LOG, maxChunkX = (predictedX + MARGIN_X) >> CHUNK_SIZE_LOG;
+		int minChunkY = (predictedY - MARGIN_Y) >> CHUNK_SIZE_LOG, maxChunkY = (predictedY + MARGIN_Y) >> CHUNK_SIZE_LOG;
+
+		for (int chunkY = minChunkY; chunkY <= maxChunkY; chunkY++) {
+			for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+				long key = GridMap.pack(chunkX, chunkY);
+				if (prefetched.containsKey(key) || isPresent.test(chunkX, chunkY))
+					continue;
+
+				GridPos chunkPos = new GridPos(chunkX, chunkY);
+				prefetched.put(key, CompletableFuture.supplyAsync(() -> inner.getAt(seed, chunkPos), POOL));
+			}
+		}
+	}
+
+	@Override
+	public void setFocus(int x, int y) {
+		// Drop mispredicted chunks once the player went elsewhere
+		prefetched.keySet().removeIf(key -> Math.abs(GridMap.unpackX(key) - x) > MAX_DISTANCE
+				|| Math.abs(GridMap.unpackY(key) - y) > MAX_DISTANCE);
+		inner.setFocus(x, y);
+	}
+
+	@Override
+	public void clearCaches() {
+		prefetched.clear();
+		inner.clearCaches();
+	}
+
+	@Override
+	public String toString() {
+		return "ChunkPrefetcher{pending=" + prefetched.size() + ", hits=" + hits + ", misses=" + misses + '}';
+	}
+
+	@FunctionalInterface
+	interface ChunkPredicate {
+		boolean test(int chunkX, int chunkY);
+	}
+}
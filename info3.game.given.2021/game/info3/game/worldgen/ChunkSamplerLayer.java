@@ -19,7 +19,35 @@ public class ChunkSamplerLayer implements Layer<GenTile> {
 		int localPosY = pos.y & CHUNK_SIZE_MASK;
 
 		Chunk chunk = chunkLayer.getAt(seed, new GridPos(chunkPosX, chunkPosY));
-		return chunk.getRaw()[localPosX + localPosY * CHUNK_SIZE];
+		return GenTile.unpack(chunk.getCells()[localPosX + localPosY * CHUNK_SIZE]);
+	}
+
+	@Override
+	public void getRegion(long seed, int minX, int minY, int w, int h, GenTile[] out) {
+		for (int y = 0; y < h; y++) {
+			int posY = minY + y;
+			int localPosY = posY & CHUNK_SIZE_MASK;
+
+			// Unpacks the row one chunk-wide run at a time
+			int x = 0;
+			while (x < w) {
+				int posX = minX + x;
+				int localPosX = posX & CHUNK_SIZE_MASK;
+				int run = Math.min(CHUNK_SIZE - localPosX, w - x);
+
+				Chunk chunk = chunkLayer.getAt(seed, new GridPos(posX >> CHUNK_SIZE_LOG, posY >> CHUNK_SIZE_LOG));
+				int[] cells = chunk.getCells();
+				int first = localPosX + localPosY * CHUNK_SIZE;
+				for (int i = 0; i < run; i++)
+					out[x + y * w + i] = GenTile.unpack(cells[first + i]);
+				x += run;
+			}
+		}
+	}
+
+	@Override
+	public void setFocus(int x, int y) {
+		chunkLayer.setFocus(x >> CHUNK_SIZE_LOG, y >> CHUNK_SIZE_LOG);
 	}
 
 	@Override
@@ -0,0 +1,68 @@
+package info3.game.worldgen;
+
+import static info3.game.worldgen.WorldGenerator.CHUNK_SIZE;
+import static info3.game.worldgen.WorldGenerator.CHUNK_SIZE_LOG;
+import static info3.game.worldgen.WorldGenerator.CHUNK_SIZE_MASK;
+
+/**
+ * Computes an inner mask one whole chunk at a time, and keeps the chunks in a
+ * bounded cache.
+ * <p>
+ * Useful for layers like noise, which are much cheaper to sample as a region
+ * than tile by tile.
+ */
+class ChunkedMaskLayer implements MaskLayer {
+	private final Cache<boolean[]> chunks;
+
+	ChunkedMaskLayer(MaskLayer inner, int capacity) {
+		this.chunks = new Cache<>(new Layer<>() {
+			@Override
+			public boolean[] getAt(long seed, GridPos pos) {
+				boolean[] mask = new boolean[CHUNK_SIZE * CHUNK_SIZE];
+				inner.getMaskRegion(seed, pos.x << CHUNK_SIZE_LOG, pos.y << CHUNK_SIZE_LOG, CHUNK_SIZE, CHUNK_SIZE, mask);
+				return mask;
+			}
+
+			@Override
+			public void clearCaches() {
+				inner.clearCaches();
+			}
+		}, capacity, Cache.Eviction.DISTANCE);
+	}
+
+	@Override
+	public boolean getMaskAt(long seed, int x, int y) {
+		boolean[] mask = chunks.getAt(seed, new GridPos(x >> CHUNK_SIZE_LOG, y >> CHUNK_SIZE_LOG));
+		return mask[(x & CHUNK_SIZE_MASK) + (y & CHUNK_SIZE_MASK) * CHUNK_SIZE];
+	}
+
+	@Override
+	public void getMaskRegion(long seed, int minX, int minY, int w, int h, boolean[] out) {
+		for (int y = 0; y < h; y++) {
+			int posY = minY + y;
+			int localPosY = posY & CHUNK_SIZE_MASK;
+
+			// Copies the row one chunk-wide run at a time
+			int x = 0;
+			while (x < w) {
+				int posX = minX + x;
+				int localPosX = posX & CHUNK_SIZE_MASK;
+				int run = Math.min(CHUNK_SIZE - localPosX, w - x);
+
+				boolean[] mask = chunks.getAt(seed, new GridPos(posX >> CHUNK_SIZE_LOG, posY >> CHUNK_SIZE_LOG));
+				System.arraycopy(mask, localPosX + localPosY * CHUNK_SIZE, out, x + y * w, run);
+				x += run;
+			}
+		}
+	}
+
+	@Override
+	public void setFocus(int x, int y) {
+		chunks.setFocus(x >> CHUNK_SIZE_LOG, y >> CHUNK_SIZE_LOG);
+	}
+
+	@Override
+	public void clearCaches() {
+		chunks.clearCaches();
+	}
+}
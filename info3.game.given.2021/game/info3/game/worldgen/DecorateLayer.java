@@ -5,10 +5,10 @@ package info3.game.worldgen;
  */
 public class DecorateLayer implements Layer<GenTile> {
 	private final Layer<GenTile> builtTiles;
-	private final Layer<Boolean> speedBumps;
-	private final Layer<Boolean> markets;
+	private final MaskLayer speedBumps;
+	private final MaskLayer markets;
 
-	public DecorateLayer(Layer<GenTile> builtTiles, Layer<Boolean> speedBumps, Layer<Boolean> markets) {
+	public DecorateLayer(Layer<GenTile> builtTiles, MaskLayer speedBumps, MaskLayer markets) {
 		this.builtTiles = builtTiles;
 		this.speedBumps = speedBumps;
 		this.markets = markets;
@@ -16,9 +16,35 @@ public class DecorateLayer implements Layer<GenTile> {
 
 	@Override
 	public GenTile getAt(long seed, GridPos pos) {
-		boolean speedBumpTop = speedBumps.getAt(seed, pos);
-		boolean speedBumpLeft = speedBumps.getAt(seed * 3 + pos.x, pos);
-		return builtTiles.getAt(seed, pos).withDecoration(markets.getAt(seed, pos), speedBumpTop, speedBumpLeft);
+		boolean speedBumpTop = speedBumps.getMaskAt(seed, pos.x, pos.y);
+		boolean speedBumpLeft = speedBumps.getMaskAt(seed * 3 + pos.x, pos.x, pos.y);
+		return builtTiles.getAt(seed, pos).withDecoration(markets.getMaskAt(seed, pos.x, pos.y), speedBumpTop,
+				speedBumpLeft);
+	}
+
+	@Override
+	public void getRegion(long seed, int minX, int minY, int w, int h, GenTile[] out) {
+		boolean[] speedBumpsTop = new boolean[w * h];
+		boolean[] marketTiles = new boolean[w * h];
+		builtTiles.getRegion(seed, minX, minY, w, h, out);
+		speedBumps.getMaskRegion(seed, minX, minY, w, h, speedBumpsTop);
+		markets.getMaskRegion(seed, minX, minY, w, h, marketTiles);
+
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				int i = x + y * w;
+				// The seed depends on the column, so this one can't be sampled as a region
+				boolean speedBumpLeft = speedBumps.getMaskAt(seed * 3 + minX + x, minX + x, minY + y);
+				out[i] = out[i].withDecoration(marketTiles[i], speedBumpsTop[i], speedBumpLeft);
+			}
+		}
+	}
+
+	@Override
+	public void setFocus(int x, int y) {
+		builtTiles.setFocus(x, y);
+		speedBumps.setFocus(x, y);
+		markets.setFocus(x, y);
 	}
 
 	@Override
@@ -26,6 +52,5 @@ public class DecorateLayer implements Layer<GenTile> {
 		builtTiles.clearCaches();
 		speedBumps.clearCaches();
 		markets.clearCaches();
-
 	}
 }
@@ -2,12 +2,28 @@ package info3.game.worldgen;
 
 import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import info3.game.graphics.Sprite;
 
+/**
+ * Tiles are flyweights: chunk tiles are interned by {@link #of}, and each tile
+ * keeps the variants returned by {@link #withDecoration} and
+ * {@link #withMarketPaving}, so that the same instances are shared by every
+ * identical tile of the world.
+ */
 public class GenTile {
+	// Layout of packed tiles, see packed()
+	static final int COLLISION_MASK = 0x7;
+	static final int MARKET_BIT = 1 << 3, SPEED_BUMP_TOP_BIT = 1 << 4, SPEED_BUMP_LEFT_BIT = 1 << 5;
+	private static final int OFFSET_X_SHIFT = 8, OFFSET_Y_SHIFT = 12, SPRITE_SHIFT = 16;
+
+	private static final Sprite[] SPRITES = Sprite.values();
+	// Undecorated tiles, by their packed sprite, offsets and collision box
+	private static final ConcurrentHashMap<Integer, GenTile> INTERNED = new ConcurrentHashMap<>();
+
 	public final Sprite buildingSprite;
 	public final int buildingSpriteOffsetX, buildingSpriteOffsetY;
 	public final CollisionBox collisionBox;
@@ -15,9 +31,14 @@ public class GenTile {
 	public final MarketRoad marketPavingTop, marketPavingLeft;
 	public final boolean speedbumpTop, speedbumpLeft;
 
-	GenTile(Sprite buildingSprite, int buildingSpriteOffsetX, int buildingSpriteOffsetY, CollisionBox collisionBox,
-			boolean hasMarketPaving, MarketRoad marketPavingTop, MarketRoad marketPavingLeft, boolean speedbumpTop,
-			boolean speedbumpLeft) {
+	// Variants of this tile, created on demand. They are not synchronized: two
+	// threads may both create the same variant, which is harmless as tiles are
+	// immutable.
+	private GenTile[] decorations, pavings;
+
+	private GenTile(Sprite buildingSprite, int buildingSpriteOffsetX, int buildingSpriteOffsetY,
+			CollisionBox collisionBox, boolean hasMarketPaving, MarketRoad marketPavingTop, MarketRoad marketPavingLeft,
+			boolean speedbumpTop, boolean speedbumpLeft) {
 		this.buildingSprite = buildingSprite;
 		this.buildingSpriteOffsetX = buildingSpriteOffsetX;
 		this.buildingSpriteOffsetY = buildingSpriteOffsetY;
@@ -29,8 +50,51 @@ public class GenTile {
 		this.speedbumpLeft = speedbumpLeft;
 	}
 
-	GenTile(Sprite sprite, int buildingSpriteOffsetX, int buildingSpriteOffsetY, CollisionBox collision) {
-		this(sprite, buildingSpriteOffsetX, buildingSpriteOffsetY, collision, false, null, null, false, false);
+	/**
+	 * @return The shared undecorated tile with these properties
+	 */
+	static GenTile of(Sprite sprite, int buildingSpriteOffsetX, int buildingSpriteOffsetY, CollisionBox collision) {
+		assert buildingSpriteOffsetX >= -8 && buildingSpriteOffsetX < 8;
+		assert buildingSpriteOffsetY >= -8 && buildingSpriteOffsetY < 8;
+		int key = pack(sprite, buildingSpriteOffsetX, buildingSpriteOffsetY, collision.bits());
+		GenTile tile = INTERNED.get(key);
+		if (tile != null)
+			return tile;
+		return INTERNED.computeIfAbsent(key, k -> new GenTile(sprite, buildingSpriteOffsetX, buildingSpriteOffsetY,
+				collision, false, null, null, false, false));
+	}
+
+	/**
+	 * @param cell As returned by {@link #packed()}
+	 * @return The shared tile with these properties, without market paving
+	 */
+	static GenTile unpack(int cell) {
+		int sprite = cell >>> SPRITE_SHIFT;
+		// Offsets are sign extended back from 4 bits
+		int offsetX = cell << (28 - OFFSET_X_SHIFT) >> 28, offsetY = cell << (28 - OFFSET_Y_SHIFT) >> 28;
+		GenTile tile = of(sprite == 0 ? null : SPRITES[sprite - 1], offsetX, offsetY,
+				CollisionBox.of(cell & COLLISION_MASK));
+		if ((cell & (MARKET_BIT | SPEED_BUMP_TOP_BIT | SPEED_BUMP_LEFT_BIT)) != 0)
+			tile = tile.withDecoration((cell & MARKET_BIT) != 0, (cell & SPEED_BUMP_TOP_BIT) != 0,
+					(cell & SPEED_BUMP_LEFT_BIT) != 0);
+		return tile;
+	}
+
+	private static int pack(Sprite sprite, int buildingSpriteOffsetX, int buildingSpriteOffsetY, int flags) {
+		return (sprite == null ? 0 : sprite.ordinal() + 1) << SPRITE_SHIFT
+				| (buildingSpriteOffsetX & 0xf) << OFFSET_X_SHIFT | (buildingSpriteOffsetY & 0xf) << OFFSET_Y_SHIFT
+				| flags;
+	}
+
+	/**
+	 * @return Everything but the market paving, packed in an int: the collision
+	 *         bits, the market and speed bump flags, both sprite offsets on 4 bits
+	 *         and the sprite ordinal
+	 */
+	int packed() {
+		return pack(buildingSprite, buildingSpriteOffsetX, buildingSpriteOffsetY, collisionBox.bits()
+				| (hasMarketPaving ? MARKET_BIT : 0) | (speedbumpTop ? SPEED_BUMP_TOP_BIT : 0)
+				| (speedbumpLeft ? SPEED_BUMP_LEFT_BIT : 0));
 	}
 
 	public GenTile withDecoration(boolean hasMarketPaving, boolean speedbumpTop, boolean speedbumpLeft) {
@@ -41,8 +105,17 @@ public class GenTile {
 		if (collisionBox.left)
 			speedbumpLeft = false;
 
-		return new GenTile(buildingSprite, buildingSpriteOffsetX, buildingSpriteOffsetY, collisionBox, hasMarketPaving,
-				null, null, speedbumpTop, speedbumpLeft);
+		GenTile[] variants = decorations;
+		if (variants == null)
+			decorations = variants = new GenTile[8];
+		int index = (hasMarketPaving ? 4 : 0) | (speedbumpTop ? 2 : 0) | (speedbumpLeft ? 1 : 0);
+		GenTile variant = variants[index];
+		if (variant == null) {
+			variant = new GenTile(buildingSprite, buildingSpriteOffsetX, buildingSpriteOffsetY, collisionBox,
+					hasMarketPaving, null, null, speedbumpTop, speedbumpLeft);
+			variants[index] = variant;
+		}
+		return variant;
 	}
 
 	public GenTile withMarketPaving(MarketRoad marketPavingTop, MarketRoad marketPavingLeft) {
@@ -50,16 +123,44 @@ public class GenTile {
 			marketPavingTop = null;
 		if (collisionBox.left)
 			marketPavingLeft = null;
+		if (marketPavingTop == this.marketPavingTop && marketPavingLeft == this.marketPavingLeft)
+			return this;
 
-		return new GenTile(buildingSprite, buildingSpriteOffsetX, buildingSpriteOffsetY, collisionBox, hasMarketPaving,
-				marketPavingTop, marketPavingLeft, speedbumpTop, speedbumpLeft);
+		GenTile[] variants = pavings;
+		if (variants == null)
+			pavings = variants = new GenTile[16];
+		int index = MarketRoad.index(marketPavingTop) * 4 + MarketRoad.index(marketPavingLeft);
+		GenTile variant = variants[index];
+		if (variant == null) {
+			variant = new GenTile(buildingSprite, buildingSpriteOffsetX, buildingSpriteOffsetY, collisionBox,
+					hasMarketPaving, marketPavingTop, marketPavingLeft, speedbumpTop, speedbumpLeft);
+			variants[index] = variant;
+		}
+		return variant;
 	}
 
 	public enum MarketRoad {
-		OUT, IN, BOTH,
+		OUT, IN, BOTH;
+
+		/**
+		 * @return 0 for null, 1 to 3 otherwise
+		 */
+		static int index(MarketRoad road) {
+			return road == null ? 0 : road.ordinal() + 1;
+		}
 	}
 
 	public static class CollisionBox {
+		// See bits()
+		public static final int TOP_LEFT_BIT = 4, TOP_BIT = 2, LEFT_BIT = 1;
+
+		private static final CollisionBox[] ALL = new CollisionBox[8];
+		static {
+			for (int bits = 0; bits < ALL.length; bits++)
+				ALL[bits] = new CollisionBox((bits & TOP_LEFT_BIT) != 0, (bits & TOP_BIT) != 0,
+						(bits & LEFT_BIT) != 0);
+		}
+
 		public final boolean topLeft, top, left;
 
 		private CollisionBox(boolean topLeft, boolean top, boolean left) {
@@ -68,13 +169,31 @@ public class GenTile {
 			this.left = left;
 		}
 
+		static CollisionBox of(boolean topLeft, boolean top, boolean left) {
+			return ALL[(topLeft ? TOP_LEFT_BIT : 0) | (top ? TOP_BIT : 0) | (left ? LEFT_BIT : 0)];
+		}
+
+		/**
+		 * @param bits As returned by {@link #bits()}
+		 */
+		static CollisionBox of(int bits) {
+			return ALL[bits & 7];
+		}
+
+		/**
+		 * @return The three flags packed in the lowest bits: topLeft, top, left
+		 */
+		int bits() {
+			return (topLeft ? TOP_LEFT_BIT : 0) | (top ? TOP_BIT : 0) | (left ? LEFT_BIT : 0);
+		}
+
 		static Map<GridPos, CollisionBox> fromOffsets(GridPos[] offsets) {
 			return Arrays.stream(offsets).collect(Collectors.toMap(Function.identity(), pos -> {
 				boolean top = Arrays.asList(offsets).contains(pos.top());
 				boolean left = Arrays.asList(offsets).contains(pos.left());
 				boolean topLeft = top && left && Arrays.asList(offsets).contains(pos.top().left());
 
-				return new CollisionBox(topLeft, top, left);
+				return CollisionBox.of(topLeft, top, left);
 			}));
 		}
 	}
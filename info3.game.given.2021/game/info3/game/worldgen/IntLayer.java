@@ -0,0 +1,23 @@
+package info3.game.worldgen;
+
+/**
+ * Layer of primitive ints, which can be sampled without boxing
+ */
+interface IntLayer extends Layer<Integer> {
+	int getIntAt(long seed, int x, int y);
+
+	/**
+	 * Same as {@link Layer#getRegion}, but without boxing
+	 */
+	default void getIntRegion(long seed, int minX, int minY, int w, int h, int[] out) {
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++)
+				out[x + y * w] = getIntAt(seed, minX + x, minY + y);
+		}
+	}
+
+	@Override
+	default Integer getAt(long seed, GridPos pos) {
+		return getIntAt(seed, pos.x, pos.y);
+	}
+}
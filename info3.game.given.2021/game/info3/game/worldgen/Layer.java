@@ -3,9 +3,31 @@ package info3.game.worldgen;
 interface Layer<E> {
 	E getAt(long seed, GridPos pos);
 
+	/**
+	 * Computes a whole rectangle at once, which lets layers share work between
+	 * neighbour tiles. The default implementation calls {@link #getAt} for each
+	 * tile.
+	 *
+	 * @param out Receives the values row by row: {@code out[x + y * w]} is the
+	 *            value at {@code (minX + x, minY + y)}
+	 */
+	default void getRegion(long seed, int minX, int minY, int w, int h, E[] out) {
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++)
+				out[x + y * w] = getAt(seed, new GridPos(minX + x, minY + y));
+		}
+	}
+
 	/**
 	 * Recursively clears caches
 	 */
 	default void clearCaches() {
 	}
+
+	/**
+	 * Recursively tells bounded caches which tile the player is around, so they
+	 * can evict what is far from it first
+	 */
+	default void setFocus(int x, int y) {
+	}
 }
@@ -0,0 +1,142 @@
+package info3.game.worldgen;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Measures the calls, time and allocated bytes of some layers, excluding what
+ * is spent in the profiled layers they call.
+ * <p>
+ * A profiler must be confined to a single thread, like the generator using it.
+ */
+class LayerProfiler {
+	private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private static final int MAX_DEPTH = 16;
+
+	private final Map<String, Stats> stats = new LinkedHashMap<>();
+	private final long threadId = Thread.currentThread().getId();
+
+	// One frame per profiled call in progress
+	private final long[] startBytes = new long[MAX_DEPTH], startNanos = new long[MAX_DEPTH];
+	private final long[] childBytes = new long[MAX_DEPTH], childNanos = new long[MAX_DEPTH];
+	private int depth = 0;
+
+	static boolean isSupported() {
+		return THREADS.isThreadAllocatedMemorySupported() && THREADS.isThreadAllocatedMemoryEnabled();
+	}
+
+	<E> Layer<E> wrap(String name, Layer<E> layer) {
+		Stats layerStats = stats.computeIfAbsent(name, k -> new Stats());
+		return new Layer<>() {
+			@Override
+			public E getAt(long seed, GridPos pos) {
+				enter();
+				try {
+					return layer.getAt(seed, pos);
+				} finally {
+					exit(layerStats);
+				}
+			}
+
+			@Override
+			public void getRegion(long seed, int minX, int minY, int w, int h, E[] out) {
+				enter();
+				try {
+					layer.getRegion(seed, minX, minY, w, h, out);
+				} finally {
+					exit(layerStats);
+				}
+			}
+
+			@Override
+			public void setFocus(int x, int y) {
+				layer.setFocus(x, y);
+			}
+
+			@Override
+			public void clearCaches() {
+				layer.clearCaches();
+			}
+		};
+	}
+
+	MaskLayer wrapMask(String name, MaskLayer layer) {
+		Stats layerStats = stats.computeIfAbsent(name, k -> new Stats());
+		return new MaskLayer() {
+			@Override
+			public boolean getMaskAt(long seed, int x, int y) {
+				enter();
+				try {
+					return layer.getMaskAt(seed, x, y);
+				} finally {
+					exit(layerStats);
+				}
+			}
+
+			@Override
+			public void getMaskRegion(long seed, int minX, int minY, int w, int h, boolean[] out) {
+				enter();
+				try {
+					layer.getMaskRegion(seed, minX, minY, w, h, out);
+				} finally {
+					exit(layerStats);
+				}
+			}
+
+			@Override
+			public void setFocus(int x, int y) {
+				layer.setFocus(x, y);
+			}
+
+			@Override
+			public void clearCaches() {
+				layer.clearCaches();
+			}
+		};
+	}
+
+	private void enter() {
+		assert Thread.currentThread().getId() == threadId : "LayerProfiler used from another thread";
+		startBytes[depth] = THREADS.getThreadAllocatedBytes(threadId);
+		startNanos[depth] = System.nanoTime();
+		childBytes[depth] = 0;
+		childNanos[depth] = 0;
+		depth++;
+	}
+
+	private void exit(Stats layerStats) {
+		depth--;
+		long nanos = System.nanoTime() - startNanos[depth];
+		long bytes = THREADS.getThreadAllocatedBytes(threadId) - startBytes[depth];
+		layerStats.calls++;
+		layerStats.nanos += nanos - childNanos[depth];
+		layerStats.bytes += bytes - childBytes[depth];
+		if (depth > 0) {
+			childNanos[depth - 1] += nanos;
+			childBytes[depth - 1] += bytes;
+		}
+	}
+
+	/**
+	 * Adds the measures of another profiler to this one
+	 */
+	void merge(LayerProfiler other) {
+		other.stats.forEach((name, otherStats) -> {
+			Stats layerStats = stats.computeIfAbsent(name, k -> new Stats());
+			layerStats.calls += otherStats.calls;
+			layerStats.nanos += otherStats.nanos;
+			layerStats.bytes += otherStats.bytes;
+		});
+	}
+
+	Map<String, Stats> getStats() {
+		return stats;
+	}
+
+	static final class Stats {
+		long calls, nanos, bytes;
+	}
+}
@@ -10,9 +10,29 @@ public class MarketConnectLayer implements Layer<GenTile> {
 	@Override
 	public GenTile getAt(long seed, GridPos pos) {
 		GenTile hereTile = inner.getAt(seed, pos);
-		boolean here = hereTile.hasMarketPaving;
 		boolean right = inner.getAt(seed, pos.right()).hasMarketPaving;
 		boolean bottom = inner.getAt(seed, pos.bottom()).hasMarketPaving;
+		return connect(hereTile, right, bottom);
+	}
+
+	@Override
+	public void getRegion(long seed, int minX, int minY, int w, int h, GenTile[] out) {
+		// One more row and column, for the right and bottom neighbours of the border
+		int innerW = w + 1;
+		GenTile[] innerTiles = new GenTile[innerW * (h + 1)];
+		inner.getRegion(seed, minX, minY, innerW, h + 1, innerTiles);
+
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++) {
+				int i = x + y * innerW;
+				out[x + y * w] = connect(innerTiles[i], innerTiles[i + 1].hasMarketPaving,
+						innerTiles[i + innerW].hasMarketPaving);
+			}
+		}
+	}
+
+	private static GenTile connect(GenTile hereTile, boolean right, boolean bottom) {
+		boolean here = hereTile.hasMarketPaving;
 
 		GenTile.MarketRoad top = null, left = null;
 		if (here && right)
@@ -31,6 +51,11 @@ public class MarketConnectLayer implements Layer<GenTile> {
 		return hereTile.withMarketPaving(top, left);
 	}
 
+	@Override
+	public void setFocus(int x, int y) {
+		inner.setFocus(x, y);
+	}
+
 	@Override
 	public void clearCaches() {
 		inner.clearCaches();
@@ -0,0 +1,98 @@
+package info3.game.worldgen;
+
+import static info3.game.worldgen.WorldGenerator.CHUNK_SIZE;
+import static info3.game.worldgen.WorldGenerator.CHUNK_SIZE_LOG;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the market tiles of a chunk, grouped into regions of connected tiles.
+ * <p>
+ * Takes chunk coordinates. A market tile is a tile of the market mask whose
+ * top-left corner isn't covered by a building, like in
+ * {@link GenTile#withDecoration}.
+ */
+class MarketIndexLayer implements Layer<MarketIndexLayer.MarketRegion[]> {
+	private static final MarketRegion[] NO_REGIONS = {};
+
+	private final Layer<Chunk> chunks;
+	private final MaskLayer markets;
+
+	MarketIndexLayer(Layer<Chunk> chunks, MaskLayer markets) {
+		this.chunks = chunks;
+		this.markets = markets;
+	}
+
+	@Override
+	public MarketRegion[] getAt(long seed, GridPos pos) {
+		int minX = pos.x << CHUNK_SIZE_LOG, minY = pos.y << CHUNK_SIZE_LOG;
+		boolean[] isMarket = new boolean[CHUNK_SIZE * CHUNK_SIZE];
+		markets.getMaskRegion(seed, minX, minY, CHUNK_SIZE, CHUNK_SIZE, isMarket);
+		// Most chunks have no market, and then aren't generated
+		boolean anyMarket = false;
+		for (boolean market : isMarket)
+			anyMarket |= market;
+		if (!anyMarket)
+			return NO_REGIONS;
+
+		int[] cells = chunks.getAt(seed, pos).getCells();
+		for (int i = 0; i < isMarket.length; i++)
+			isMarket[i] &= (cells[i] & GenTile.CollisionBox.TOP_LEFT_BIT) == 0;
+
+		List<MarketRegion> regions = new ArrayList<>();
+		int[] stack = new int[isMarket.length];
+		int[] found = new int[isMarket.length];
+		for (int start = 0; start < isMarket.length; start++) {
+			if (!isMarket[start])
+				continue;
+
+			// Flood fill, clearing the mask behind it
+			int count = 0, top = 0;
+			stack[top++] = start;
+			isMarket[start] = false;
+			while (top > 0) {
+				int i = stack[--top];
+				found[count++] = i;
+				int x = i & (CHUNK_SIZE - 1), y = i >> CHUNK_SIZE_LOG;
+				if (y > 0 && isMarket[i - CHUNK_SIZE]) {
+					isMarket[i - CHUNK_SIZE] = false;
+					stack[top++] = i - CHUNK_SIZE;
+				}
+				if (x < CHUNK_SIZE - 1 && isMarket[i + 1]) {
+					isMarket[i + 1] = false;
+					stack[top++] = i + 1;
+				}
+				if (y < CHUNK_SIZE - 1 && isMarket[i + CHUNK_SIZE]) {
+					isMarket[i + CHUNK_SIZE] = false;
+					stack[top++] = i + CHUNK_SIZE;
+				}
+				if (x > 0 && isMarket[i - 1]) {
+					isMarket[i - 1] = false;
+					stack[top++] = i - 1;
+				}
+			}
+			regions.add(new MarketRegion(minX, minY, Arrays.copyOf(found, count)));
+		}
+
+		return regions.isEmpty() ? NO_REGIONS : regions.toArray(NO_REGIONS);
+	}
+
+	/**
+	 * Connected market tiles of a single chunk
+	 */
+	static final class MarketRegion {
+		// Absolute coordinates of the tiles
+		final int[] xs, ys;
+
+		private MarketRegion(int chunkMinX, int chunkMinY, int[] localIndices) {
+			xs = new int[localIndices.length];
+			ys = new int[localIndices.length];
+			for (int i = 0; i < localIndices.length; i++) {
+				xs[i] = chunkMinX + (localIndices[i] & (CHUNK_SIZE - 1));
+				ys[i] = chunkMinY + (localIndices[i] >> CHUNK_SIZE_LOG);
+			}
+		}
+	}
+}
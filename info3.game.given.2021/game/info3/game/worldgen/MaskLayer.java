@@ -0,0 +1,23 @@
+package info3.game.worldgen;
+
+/**
+ * Layer of primitive booleans, which can be sampled without boxing
+ */
+interface MaskLayer extends Layer<Boolean> {
+	boolean getMaskAt(long seed, int x, int y);
+
+	/**
+	 * Same as {@link Layer#getRegion}, but without boxing
+	 */
+	default void getMaskRegion(long seed, int minX, int minY, int w, int h, boolean[] out) {
+		for (int y = 0; y < h; y++) {
+			for (int x = 0; x < w; x++)
+				out[x + y * w] = getMaskAt(seed, minX + x, minY + y);
+		}
+	}
+
+	@Override
+	default Boolean getAt(long seed, GridPos pos) {
+		return getMaskAt(seed, pos.x, pos.y);
+	}
+}
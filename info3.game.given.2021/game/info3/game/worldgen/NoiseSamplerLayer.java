@@ -1,6 +1,6 @@
 package info3.game.worldgen;
 
-public class NoiseSamplerLayer implements Layer<Integer> {
+public class NoiseSamplerLayer implements IntLayer {
 	private final float width;
 
 	public NoiseSamplerLayer(float width) {
@@ -9,8 +9,24 @@ public class NoiseSamplerLayer implements Layer<Integer> {
 	}
 
 	@Override
-	public Integer getAt(long seed, GridPos pos) {
-		float noise = OpenSimplex2.noise2(seed, (float) pos.x / width, (float) pos.y / width);
+	public int getIntAt(long seed, int x, int y) {
+		float noise = OpenSimplex2.noise2(seed, (float) x / width, (float) y / width);
 		return (int) (noise * Integer.MAX_VALUE);
 	}
+
+	@Override
+	public void getIntRegion(long seed, int minX, int minY, int w, int h, int[] out) {
+		// Coordinates are computed exactly like in getIntAt, so both give the same
+		// values
+		float[] xs = new float[w], ys = new float[h];
+		for (int x = 0; x < w; x++)
+			xs[x] = (float) (minX + x) / width;
+		for (int y = 0; y < h; y++)
+			ys[y] = (float) (minY + y) / width;
+
+		float[] noise = new float[w * h];
+		OpenSimplex2.noise2Grid(seed, xs, ys, noise);
+		for (int i = 0; i < noise.length; i++)
+			out[i] = (int) (noise[i] * Integer.MAX_VALUE);
+	}
 }
@@ -59,6 +59,45 @@ public class OpenSimplex2 {
 		return noise2unskewedBase(seed, xs, ys);
 	}
 
+	/**
+	 * Samples {@link #noise2} on every point of a grid:
+	 * {@code out[i + j * xs.length]} is exactly {@code noise2(seed, xs[i], ys[j])}.
+	 * <p>
+	 * The skew, floor and unskew steps of each row are done in separate loops
+	 * without branches nor calls, which the JIT can vectorize, and only the
+	 * gradient lookups are done point by point.
+	 */
+	public static void noise2Grid(long seed, float[] xs, float[] ys, float[] out) {
+		int w = xs.length;
+		int[] xsb = new int[w], ysb = new int[w];
+		float[] dx0 = new float[w], dy0 = new float[w], t = new float[w];
+
+		for (int j = 0; j < ys.length; j++) {
+			double y = ys[j];
+
+			// Same operations as noise2 and noise2unskewedBase, in the same order, so
+			// that the results are identical
+			for (int i = 0; i < w; i++) {
+				double s = SKEW_2D * (xs[i] + y);
+				double xsi = xs[i] + s, ysi = y + s;
+				int xb = (int) xsi, yb = (int) ysi;
+				xb = xsi < xb ? xb - 1 : xb;
+				yb = ysi < yb ? yb - 1 : yb;
+				float xi = (float) (xsi - xb), yi = (float) (ysi - yb);
+				float ti = (xi + yi) * (float) UNSKEW_2D;
+				xsb[i] = xb;
+				ysb[i] = yb;
+				t[i] = ti;
+				dx0[i] = xi + ti;
+				dy0[i] = yi + ti;
+			}
+
+			int offset = j * w;
+			for (int i = 0; i < w; i++)
+				out[offset + i] = noise2Vertices(seed, xsb[i], ysb[i], t[i], dx0[i], dy0[i]);
+		}
+	}
+
 	/**
 	 * 2D Simplex noise, with Y pointing down the main diagonal. Might be better for
 	 * a 2D sandbox style game, where Y is vertical. Probably slightly less optimal
@@ -84,13 +123,21 @@ public class OpenSimplex2 {
 		int xsb = fastFloor(xs), ysb = fastFloor(ys);
 		float xi = (float) (xs - xsb), yi = (float) (ys - ysb);
 
-		// Prime pre-multiplication for hash.
-		long xsbp = xsb * PRIME_X, ysbp = ysb * PRIME_Y;
-
 		// Unskew.
 		float t = (xi + yi) * (float) UNSKEW_2D;
 		float dx0 = xi + t, dy0 = yi + t;
 
+		return noise2Vertices(seed, xsb, ysb, t, dx0, dy0);
+	}
+
+	/**
+	 * Sums the contributions of the three vertices around an unskewed point
+	 */
+	private static float noise2Vertices(long seed, int xsb, int ysb, float t, float dx0, float dy0) {
+
+		// Prime pre-multiplication for hash.
+		long xsbp = xsb * PRIME_X, ysbp = ysb * PRIME_Y;
+
 		// First vertex.
 		float value = 0;
 		float a0 = RSQUARED_2D - dx0 * dx0 - dy0 * dy0;
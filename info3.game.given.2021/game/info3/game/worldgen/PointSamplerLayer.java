@@ -1,11 +1,8 @@
 package info3.game.worldgen;
 
-import java.util.Random;
-
-public class PointSamplerLayer implements Layer<Integer> {
+public class PointSamplerLayer implements IntLayer {
 	@Override
-	public Integer getAt(long seed, GridPos pos) {
-		Random rng = Utils.seedRandom(seed, pos);
-		return rng.nextInt();
+	public int getIntAt(long seed, int x, int y) {
+		return (int) (Utils.hash(seed, x, y) >>> 32);
 	}
 }
@@ -1,10 +1,8 @@
 package info3.game.worldgen;
 
-import java.util.Arrays;
+import static info3.game.worldgen.WorldGenerator.CHUNK_SIZE;
+
 import java.util.Map;
-import java.util.Objects;
-import java.util.function.Predicate;
-import java.util.stream.Stream;
 
 import info3.game.graphics.Sprite;
 
@@ -43,32 +41,72 @@ enum RootedBuilding {
 			new Sprite[] { Sprite.CITY_CORNER_TR });
 
 	private final GridPos[] offsets;
-	private final GridPos topLeft;
-	private final Map<GridPos, GenTile.CollisionBox> collisionBoxes;
 	public final Sprite[] sprites;
+	// Tiles of the building for each sprite, in the order of offsets
+	private final GenTile[][] tiles;
+	// For each root cell of a chunk, the cells covered by the building as a
+	// bitset, or null if the building goes out of the chunk from there
+	private final long[][] masks = new long[CHUNK_SIZE * CHUNK_SIZE][];
 
 	RootedBuilding(GridPos[] offsets, Sprite[] sprites) {
 		this.offsets = offsets;
-		this.topLeft = computeTopLeft(offsets);
-		this.collisionBoxes = GenTile.CollisionBox.fromOffsets(offsets);
 		this.sprites = sprites;
-	}
 
-	public GridPos topLeft() {
-		return topLeft;
+		GridPos topLeft = computeTopLeft(offsets);
+		Map<GridPos, GenTile.CollisionBox> collisionBoxes = GenTile.CollisionBox.fromOffsets(offsets);
+		tiles = new GenTile[sprites.length][offsets.length];
+		for (int spriteIndex = 0; spriteIndex < sprites.length; spriteIndex++) {
+			for (int i = 0; i < offsets.length; i++) {
+				tiles[spriteIndex][i] = GenTile.of(sprites[spriteIndex], offsets[i].x - topLeft.x,
+						offsets[i].y - topLeft.y, collisionBoxes.get(offsets[i]));
+			}
+		}
+
+		for (int root = 0; root < masks.length; root++) {
+			int rootX = root % CHUNK_SIZE, rootY = root / CHUNK_SIZE;
+			long[] mask = new long[CHUNK_SIZE * CHUNK_SIZE / Long.SIZE];
+			for (GridPos offset : offsets) {
+				int x = rootX + offset.x, y = rootY + offset.y;
+				if (x < 0 || x >= CHUNK_SIZE || y < 0 || y >= CHUNK_SIZE) {
+					mask = null;
+					break;
+				}
+				mask[(x + y * CHUNK_SIZE) / Long.SIZE] |= 1L << (x + y * CHUNK_SIZE);
+			}
+			masks[root] = mask;
+		}
 	}
 
-	public GenTile.CollisionBox getCollision(int spriteU, int spriteV) {
-		return Objects.requireNonNull(collisionBoxes.get(new GridPos(spriteU, spriteV)), "Unknown collision box");
+	/**
+	 * @param root Local offset in the chunk of the cell at offset (0, 0)
+	 */
+	public boolean fitsAt(Chunk chunk, int root) {
+		return masks[root] != null && chunk.isFree(masks[root]);
 	}
 
-	public Stream<GridPos> coveredCells(int x, int y) {
-		return Arrays.stream(offsets).map(offset -> new GridPos(x + offset.x, y + offset.y));
+	/**
+	 * @param root        Local offset in the chunk of the cell at offset (0, 0)
+	 * @param spriteIndex Index of the sprite in {@link #sprites}
+	 */
+	public void placeAt(Chunk chunk, int root, int spriteIndex) {
+		for (int i = 0; i < offsets.length; i++)
+			chunk.setBuilding(root + offsets[i].x + offsets[i].y * CHUNK_SIZE, tiles[spriteIndex][i]);
 	}
 
-	public static RootedBuilding[] valuesWithPredicate(GridPos pos, Predicate<GridPos> isCellFree) {
-		return Arrays.stream(values()).filter(b -> b.coveredCells(pos.x, pos.y).allMatch(isCellFree))
-				.toArray(RootedBuilding[]::new);
+	/**
+	 * @return A hash of every building definition, which changes whenever a
+	 *         building or one of its sprites is added, removed or modified
+	 */
+	static long definitionsHash() {
+		long hash = 1125899906842597L;
+		for (RootedBuilding building : values()) {
+			hash = 31 * hash + building.name().hashCode();
+			for (GridPos offset : building.offsets)
+				hash = 31 * (31 * hash + offset.x) + offset.y;
+			for (Sprite sprite : building.sprites)
+				hash = 31 * (31 * hash + sprite.name().hashCode()) + sprite.ordinal();
+		}
+		return hash;
 	}
 
 	private static GridPos computeTopLeft(GridPos[] offsets) {
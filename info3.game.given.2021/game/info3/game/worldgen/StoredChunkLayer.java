@@ -0,0 +1,149 @@
+package info3.game.worldgen;
+
+import static info3.game.worldgen.WorldGenerator.CHUNK_SIZE;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import info3.game.position.GridMap;
+
+/**
+ * Keeps generated chunks on disk, so that a world that was already visited with
+ * the same seed isn't generated again.
+ * <p>
+ * Chunks are grouped by regions of 32x32 chunks, one file per region and seed.
+ * A region file is mapped in memory as a whole, and is made of a header, one
+ * presence byte per chunk, and one fixed size slot per chunk holding its packed
+ * cells. A file whose header doesn't match (other format, seed or building
+ * definitions) is reset instead of being read.
+ * <p>
+ * If the files can't be used, the chunks are simply generated by the inner
+ * layer.
+ */
+class StoredChunkLayer implements Layer<Chunk> {
+	private static final int MAGIC = 0x50545243; // "PTRC"
+	// Bump when the encoding of tiles changes
+	private static final int FORMAT_VERSION = 2;
+	// Bump when ChunkLayer places buildings differently
+	private static final int GENERATOR_VERSION = 3;
+
+	private static final int REGION_SIZE_LOG = 5;
+	private static final int REGION_SIZE = 1 << REGION_SIZE_LOG;
+	private static final int REGION_CHUNKS = REGION_SIZE * REGION_SIZE;
+
+	private static final int HEADER_SIZE = 32;
+	private static final int SLOT_SIZE = CHUNK_SIZE * CHUNK_SIZE * Integer.BYTES;
+	private static final int SLOTS_OFFSET = HEADER_SIZE + REGION_CHUNKS;
+	private static final int FILE_SIZE = SLOTS_OFFSET + REGION_CHUNKS * SLOT_SIZE;
+
+	// Mapped regions are dropped all at once past this count
+	private static final int MAX_OPEN_REGIONS = 16;
+
+	private final Layer<Chunk> inner;
+	private final Path directory;
+	private final long definitionsHash = RootedBuilding.definitionsHash();
+	private final GridMap<MappedByteBuffer> regions = new GridMap<>();
+	private long regionsSeed;
+	private boolean disabled = false;
+
+	StoredChunkLayer(Layer<Chunk> inner, Path directory) {
+		this.inner = inner;
+		this.directory = directory;
+	}
+
+	@Override
+	public Chunk getAt(long seed, GridPos pos) {
+		int slot = (pos.x & (REGION_SIZE - 1)) + (pos.y & (REGION_SIZE - 1)) * REGION_SIZE;
+		Chunk stored = read(seed, pos.x >> REGION_SIZE_LOG, pos.y >> REGION_SIZE_LOG, slot);
+		if (stored != null)
+			return stored;
+
+		// Generated outside of the lock, as this is called from prefetching threads
+		Chunk chunk = inner.getAt(seed, pos);
+		write(seed, pos.x >> REGION_SIZE_LOG, pos.y >> REGION_SIZE_LOG, slot, chunk);
+		return chunk;
+	}
+
+	private synchronized Chunk read(long seed, int regionX, int regionY, int slot) {
+		MappedByteBuffer region = region(seed, regionX, regionY);
+		if (region == null || region.get(HEADER_SIZE + slot) == 0)
+			return null;
+
+		Chunk chunk = new Chunk();
+		int offset = SLOTS_OFFSET + slot * SLOT_SIZE;
+		for (int i = 0; i < CHUNK_SIZE * CHUNK_SIZE; i++)
+			chunk.setCell(i, region.getInt(offset + i * Integer.BYTES));
+		return chunk;
+	}
+
+	private synchronized void write(long seed, int regionX, int regionY, int slot, Chunk chunk) {
+		MappedByteBuffer region = region(seed, regionX, regionY);
+		if (region == null)
+			return;
+
+		int[] cells = chunk.getCells();
+		int offset = SLOTS_OFFSET + slot * SLOT_SIZE;
+		for (int i = 0; i < cells.length; i++)
+			region.putInt(offset + i * Integer.BYTES, cells[i]);
+		// Marked as present once the whole slot is written
+		region.put(HEADER_SIZE + slot, (byte) 1);
+	}
+
+	/**
+	 * @return The mapped region file, or null if the store is disabled
+	 */
+	private MappedByteBuffer region(long seed, int regionX, int regionY) {
+		if (disabled)
+			return null;
+		if (seed != regionsSeed || regions.size() >= MAX_OPEN_REGIONS) {
+			regions.clear();
+			regionsSeed = seed;
+		}
+
+		MappedByteBuffer region = regions.get(regionX, regionY);
+		if (region != null)
+			return region;
+
+		Path file = directory.resolve(String.format("%016x.%d.%d.region", seed, regionX, regionY));
+		try {
+			Files.createDirectories(directory);
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE)) {
+				// The mapping stays valid once the channel is closed
+				region = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+			}
+		} catch (IOException | UnsupportedOperationException e) {
+			System.err.printf("Couldn't open the world cache %s, chunks won't be stored: %s%n", file, e);
+			disabled = true;
+			return null;
+		}
+
+		if (!hasValidHeader(region, seed)) {
+			for (int slot = 0; slot < REGION_CHUNKS; slot++)
+				region.put(HEADER_SIZE + slot, (byte) 0);
+			region.putInt(0, MAGIC);
+			region.putInt(4, FORMAT_VERSION);
+			region.putInt(8, GENERATOR_VERSION);
+			region.putLong(16, seed);
+			region.putLong(24, definitionsHash);
+		}
+		regions.put(regionX, regionY, region);
+		return region;
+	}
+
+	private boolean hasValidHeader(MappedByteBuffer region, long seed) {
+		return region.getInt(0) == MAGIC && region.getInt(4) == FORMAT_VERSION
+				&& region.getInt(8) == GENERATOR_VERSION && region.getLong(16) == seed
+				&& region.getLong(24) == definitionsHash;
+	}
+
+	@Override
+	public void clearCaches() {
+		// The files are kept: they are only invalidated by their header
+		inner.clearCaches();
+	}
+}
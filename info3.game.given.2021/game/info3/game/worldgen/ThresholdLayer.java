@@ -1,17 +1,30 @@
 package info3.game.worldgen;
 
-public class ThresholdLayer implements Layer<Boolean> {
-	private final Layer<Integer> inner;
+public class ThresholdLayer implements MaskLayer {
+	private final IntLayer inner;
 	private final int threshold;
 
-	public ThresholdLayer(Layer<Integer> inner, float threshold) {
+	public ThresholdLayer(IntLayer inner, float threshold) {
 		this.inner = inner;
 		this.threshold = (int) (threshold * Integer.MAX_VALUE);
 	}
 
 	@Override
-	public Boolean getAt(long seed, GridPos pos) {
-		return inner.getAt(seed, pos) > threshold;
+	public boolean getMaskAt(long seed, int x, int y) {
+		return inner.getIntAt(seed, x, y) > threshold;
+	}
+
+	@Override
+	public void getMaskRegion(long seed, int minX, int minY, int w, int h, boolean[] out) {
+		int[] values = new int[w * h];
+		inner.getIntRegion(seed, minX, minY, w, h, values);
+		for (int i = 0; i < values.length; i++)
+			out[i] = values[i] > threshold;
+	}
+
+	@Override
+	public void setFocus(int x, int y) {
+		inner.setFocus(x, y);
 	}
 
 	@Override
@@ -1,17 +1,48 @@
 package info3.game.worldgen;
 
-import java.util.Random;
-
+/**
+ * Random numbers for the generation, computed as hashes of the seed and of the
+ * position instead of being drawn from a generator. They don't allocate nor
+ * synchronize anything, and only depend on their arguments, whatever the thread
+ * or the order in which chunks are generated.
+ */
 class Utils {
-	public static Random seedRandom(long seed, GridPos pos) {
-		Random rng = new Random((seed * 31L + pos.x) * 31L + pos.y);
-		rng.nextLong();
-		return rng;
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	/**
+	 * SplitMix64 finalizer: a bijection where each output bit depends on every
+	 * input bit
+	 */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @return A random value for a position. Different positions always give
+	 *         different values for the same seed.
+	 */
+	static long hash(long seed, int x, int y) {
+		return mix(seed ^ mix(((long) x << 32 | (y & 0xffffffffL)) + GOLDEN_GAMMA));
+	}
+
+	/**
+	 * @return The n-th value of a SplitMix64 sequence seeded by
+	 *         {@link #hash(long, int, int)}, for positions that need several
+	 *         random values
+	 */
+	static long hash(long seed, int x, int y, int n) {
+		return mix(hash(seed, x, y) + GOLDEN_GAMMA * (n + 1L));
 	}
 
-	public static <T> T chooseRandom(T[] array, Random rng) {
-		assert array.length > 0 : "Can't choose random element in empty array";
-		return array[rng.nextInt(array.length)];
+	/**
+	 * @return A value between 0 (inclusive) and bound (exclusive), from the high
+	 *         bits of a random value
+	 */
+	static int bounded(long random, int bound) {
+		assert bound > 0;
+		return (int) (((random >>> 32) * bound) >>> 32);
 	}
 
 	private Utils() {
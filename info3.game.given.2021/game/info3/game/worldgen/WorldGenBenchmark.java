@@ -0,0 +1,79 @@
+package info3.game.worldgen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Generates square areas of the world for many seeds in parallel, without any
+ * rendering, and reports the throughput of the layer stack.
+ * <p>
+ * Run with
+ * {@code java info3.game.worldgen.WorldGenBenchmark [seeds] [size] [threads]}.
+ * Each seed gets its own {@link WorldGenerator}, confined to the thread that
+ * generates it.
+ */
+public class WorldGenBenchmark {
+	// Tiles are generated by regions of this size, like the viewport does
+	private static final int REGION_SIZE = 64;
+
+	public static void main(String[] args) throws Exception {
+		int seeds = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+		int size = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		if (!LayerProfiler.isSupported())
+			System.out.println("Allocation measurement isn't supported by this JVM, bytes will be wrong");
+
+		// A first pass lets the JIT compile the layers
+		System.out.println("Warmup");
+		run(Math.min(seeds, threads), size / 2, threads);
+		System.out.printf("%d seeds, %dx%d tiles each, %d threads%n", seeds, size, size, threads);
+		run(seeds, size, threads);
+	}
+
+	private static void run(int seeds, int size, int threads) throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		List<Callable<LayerProfiler>> tasks = new ArrayList<>();
+		for (int seed = 0; seed < seeds; seed++) {
+			long finalSeed = seed;
+			tasks.add(() -> generate(finalSeed, size));
+		}
+
+		long start = System.nanoTime();
+		LayerProfiler total = new LayerProfiler();
+		for (Future<LayerProfiler> result : pool.invokeAll(tasks))
+			total.merge(result.get());
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+
+		long tiles = (long) seeds * size * size;
+		LayerProfiler.Stats chunkStats = total.getStats().get("ChunkLayer");
+		long chunks = chunkStats == null ? 0 : chunkStats.calls;
+		long bytes = total.getStats().values().stream().mapToLong(stats -> stats.bytes).sum();
+		System.out.printf("%.2fs: %.0f tiles/s, %.0f chunks/s, %.1f MB/s allocated by the layers%n", seconds,
+				tiles / seconds, chunks / seconds, bytes / seconds / 1e6);
+
+		System.out.printf("%-20s %12s %12s %12s %12s%n", "layer", "calls", "cpu ms", "MB", "bytes/call");
+		total.getStats().forEach((name, stats) -> System.out.printf("%-20s %12d %12.0f %12.1f %12.0f%n", name,
+				stats.calls, stats.nanos / 1e6, stats.bytes / 1e6, (double) stats.bytes / Math.max(1, stats.calls)));
+		System.out.println();
+	}
+
+	private static LayerProfiler generate(long seed, int size) {
+		LayerProfiler profiler = new LayerProfiler();
+		WorldGenerator generator = new WorldGenerator(seed, profiler);
+		GenTile[] region = new GenTile[REGION_SIZE * REGION_SIZE];
+
+		int min = -size / 2;
+		for (int y = min; y < min + size; y += REGION_SIZE) {
+			for (int x = min; x < min + size; x += REGION_SIZE) {
+				int w = Math.min(REGION_SIZE, min + size - x), h = Math.min(REGION_SIZE, min + size - y);
+				generator.setFocus(x + w / 2, y + h / 2);
+				generator.generateRegion(x, y, w, h, region);
+			}
+		}
+		return profiler;
+	}
+}
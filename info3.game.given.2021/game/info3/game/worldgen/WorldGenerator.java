@@ -1,62 +1,268 @@
 package info3.game.worldgen;
 
-import java.util.HashSet;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
-import java.util.Set;
-import java.util.function.Predicate;
-import java.util.stream.Stream;
+import java.util.Optional;
 
+import info3.game.position.GridMap;
+import info3.game.position.GridSet;
+
+/**
+ * Generates the city tiles from a seed. Every method can be called from any
+ * thread, except when a profiler is given.
+ */
 public class WorldGenerator {
 	public static final int CHUNK_SIZE_LOG = 4;
 	public static final int CHUNK_SIZE = 1 << CHUNK_SIZE_LOG;
 	public static final int CHUNK_SIZE_MASK = CHUNK_SIZE - 1;
 
-	private long seed;
-	private final Layer<Boolean> markets;
+	// Bounds of the caches, so memory stays flat however far the truck drives
+	private static final int CHUNK_CACHE_CAPACITY = 256;
+	private static final int TILE_CACHE_CAPACITY = 1 << 14;
+	// Markets farther than that, in chunks, are not searched for
+	private static final int MARKET_SEARCH_RADIUS = 64;
+	// Directory where generated chunks are stored between runs, if set
+	public static final String WORLD_CACHE_PROPERTY = "patatruck.worldCache";
+
+	private volatile long seed;
+	private final MaskLayer markets;
 	private final Layer<GenTile> inner;
-	private final Set<GridPos> seenMarketTiles = new HashSet<>();
+	private final List<Cache<?>> caches;
+	private final Cache<Chunk> chunks;
+	private final ChunkPrefetcher prefetcher;
+	private final MarketIndexLayer marketLayer;
+	// The fields below are guarded by seenMarketTiles
+	private final GridSet seenMarketTiles = new GridSet();
+	// Market regions not seen yet, by chunk. Kept for the whole run: a chunk
+	// without markets only costs an entry, and a chunk is indexed once.
+	private final GridMap<MarketIndexLayer.MarketRegion[]> marketIndex = new GridMap<>();
+	// Last result of locateNearestMarket, valid while nothing new is seen
+	private Optional<LocatedMarket> nearestMarket;
+	private int nearestMarketChunkX, nearestMarketChunkY;
 
 	public WorldGenerator(long seed) {
-		this.seed = new Random(seed).nextLong();
+		this(seed, null);
+	}
+
+	/**
+	 * @param profiler Measures the main layers if not null, in which case the
+	 *                 generator must only be used from the profiler thread
+	 */
+	WorldGenerator(long seed, LayerProfiler profiler) {
+		this.seed = Utils.mix(seed);
 
 		// FIXME: speed bumps never appear
-		Layer<Boolean> speedBumps = new ThresholdLayer(new PointSamplerLayer(), 0.9F);
-		Layer<Boolean> markets = new ThresholdLayer(new NoiseSamplerLayer(24), 0.9F);
-		Layer<GenTile> buildings = new ChunkSamplerLayer(new Cache<>(new ChunkLayer()));
+		MaskLayer speedBumps = profiled(profiler, "SpeedBumps",
+				new ThresholdLayer(new PointSamplerLayer(), 0.9F));
+		// The noise is sampled a whole chunk at a time
+		MaskLayer markets = new ChunkedMaskLayer(
+				profiled(profiler, "MarketNoise", new ThresholdLayer(new NoiseSamplerLayer(24), 0.9F)),
+				CHUNK_CACHE_CAPACITY);
+		Layer<Chunk> generatedChunks = profiled(profiler, "ChunkLayer", new ChunkLayer());
+		String worldCache = System.getProperty(WORLD_CACHE_PROPERTY);
+		if (worldCache != null)
+			generatedChunks = new StoredChunkLayer(generatedChunks, Path.of(worldCache));
+		prefetcher = new ChunkPrefetcher(generatedChunks);
+		chunks = new Cache<>(prefetcher, CHUNK_CACHE_CAPACITY, Cache.Eviction.DISTANCE);
+		Layer<GenTile> buildings = new ChunkSamplerLayer(chunks);
+		Cache<GenTile> decorated = new Cache<>(
+				profiled(profiler, "DecorateLayer", new DecorateLayer(buildings, speedBumps, markets)),
+				TILE_CACHE_CAPACITY, Cache.Eviction.LRU);
+		Cache<GenTile> connected = new Cache<>(
+				profiled(profiler, "MarketConnectLayer", new MarketConnectLayer(decorated)), TILE_CACHE_CAPACITY,
+				Cache.Eviction.LRU);
 
 		this.markets = markets;
-		inner = new Cache<>(new MarketConnectLayer(new Cache<>(new DecorateLayer(buildings, speedBumps, markets))));
+		this.marketLayer = new MarketIndexLayer(chunks, markets);
+		this.caches = List.of(chunks, decorated, connected);
+		inner = connected;
+	}
+
+	private static <E> Layer<E> profiled(LayerProfiler profiler, String name, Layer<E> layer) {
+		return profiler == null ? layer : profiler.wrap(name, layer);
+	}
+
+	private static MaskLayer profiled(LayerProfiler profiler, String name, MaskLayer layer) {
+		return profiler == null ? layer : profiler.wrapMask(name, layer);
 	}
 
 	public void changeSeed(long seed) {
+		synchronized (seenMarketTiles) {
+			this.seed = Utils.mix(seed);
+			seenMarketTiles.clear();
+			marketIndex.clear();
+			nearestMarket = null;
+		}
+		// Cached entries are keyed by seed, this only frees the old ones
 		inner.clearCaches();
-		seenMarketTiles.clear();
-		this.seed = seed;
+	}
+
+	/**
+	 * Bounded caches evict what is farthest from this tile first
+	 */
+	public void setFocus(int gridX, int gridY) {
+		inner.setFocus(gridX, gridY);
+	}
+
+	/**
+	 * Generates in the background the chunks that the player is about to reach
+	 *
+	 * @param velX Velocity of the player, in tiles per tick
+	 * @param velY Velocity of the player, in tiles per tick
+	 */
+	public void prefetch(int gridX, int gridY, double velX, double velY) {
+		long seed = this.seed;
+		prefetcher.prefetch(seed, gridX, gridY, velX, velY, (chunkX, chunkY) -> chunks.contains(seed, chunkX, chunkY));
+	}
+
+	/**
+	 * @return Hit, miss and eviction counters of the chunk cache and of both tile
+	 *         caches, and how many chunks were ready thanks to prefetching
+	 */
+	public String getCacheStats() {
+		return "chunks=" + caches.get(0) + " decorated=" + caches.get(1) + " connected=" + caches.get(2) + " "
+				+ prefetcher;
+	}
+
+	/**
+	 * Cheaper than {@link #generate} when only collisions are needed
+	 *
+	 * @return The collision bits of a tile, see {@link GenTile.CollisionBox}
+	 */
+	public int getCollisionBits(int gridX, int gridY) {
+		Chunk chunk = chunks.getAt(seed, new GridPos(gridX >> CHUNK_SIZE_LOG, gridY >> CHUNK_SIZE_LOG));
+		return chunk.getCells()[(gridX & CHUNK_SIZE_MASK) + (gridY & CHUNK_SIZE_MASK) * CHUNK_SIZE]
+				& GenTile.COLLISION_MASK;
 	}
 
 	public GenTile generate(int x, int y) {
 		return inner.getAt(seed, new GridPos(x, y));
 	}
 
-	public Stream<LocatedMarket> locateMarkets(int centerX, int centerY) {
-		return SpiralStream.create(centerX, centerY).filter(pos -> inner.getAt(seed, pos).hasMarketPaving)
-				.filter(Predicate.not(seenMarketTiles::contains)).map(pos -> new LocatedMarket(pos.x, pos.y));
+	/**
+	 * Generates a whole rectangle of tiles at once
+	 *
+	 * @param out Receives the tiles row by row: {@code out[x + y * w]} is the
+	 *            tile at {@code (minX + x, minY + y)}
+	 */
+	public void generateRegion(int minX, int minY, int w, int h, GenTile[] out) {
+		inner.getRegion(seed, minX, minY, w, h, out);
 	}
 
-	public void markMarketAsSeen(int gridX, int gridY) {
-		markMarketAsSeen(new GridPos(gridX, gridY));
+	/**
+	 * Finds the closest market tile that wasn't seen yet, looking at the market
+	 * index of chunks in rings of growing size around the center.
+	 * <p>
+	 * The result is kept until the center moves to another chunk or a market is
+	 * seen, so it is the closest to where the center was then.
+	 */
+	public Optional<LocatedMarket> locateNearestMarket(int centerX, int centerY) {
+		int centerChunkX = centerX >> CHUNK_SIZE_LOG, centerChunkY = centerY >> CHUNK_SIZE_LOG;
+		synchronized (seenMarketTiles) {
+			if (nearestMarket == null || nearestMarketChunkX != centerChunkX || nearestMarketChunkY != centerChunkY) {
+				nearestMarket = searchNearestMarket(centerX, centerY);
+				nearestMarketChunkX = centerChunkX;
+				nearestMarketChunkY = centerChunkY;
+			}
+			return nearestMarket;
+		}
 	}
 
-	private void markMarketAsSeen(GridPos pos) {
-		if (seenMarketTiles.add(pos)) {
-			for (GridPos around : List.of(pos.top(), pos.right(), pos.bottom(), pos.left())) {
-				if (markets.getAt(seed, around))
-					markMarketAsSeen(around);
+	private Optional<LocatedMarket> searchNearestMarket(int centerX, int centerY) {
+		int centerChunkX = centerX >> CHUNK_SIZE_LOG, centerChunkY = centerY >> CHUNK_SIZE_LOG;
+		LocatedMarket nearest = null;
+		long nearestDistance = Long.MAX_VALUE;
+
+		for (int ring = 0; ring <= MARKET_SEARCH_RADIUS; ring++) {
+			// Every tile of this ring is at least that far on one axis
+			long minDistance = ring == 0 ? 0 : (long) (ring - 1) * CHUNK_SIZE + 1;
+			if (minDistance * minDistance > nearestDistance)
+				break;
+
+			for (int chunkY = centerChunkY - ring; chunkY <= centerChunkY + ring; chunkY++) {
+				// Inner rows of the ring only have their two ends
+				int step = chunkY == centerChunkY - ring || chunkY == centerChunkY + ring ? 1 : Math.max(1, 2 * ring);
+				for (int chunkX = centerChunkX - ring; chunkX <= centerChunkX + ring; chunkX += step) {
+					for (MarketIndexLayer.MarketRegion region : getUnseenMarkets(chunkX, chunkY)) {
+						for (int i = 0; i < region.xs.length; i++) {
+							long dx = region.xs[i] - centerX, dy = region.ys[i] - centerY;
+							if (dx * dx + dy * dy < nearestDistance) {
+								nearestDistance = dx * dx + dy * dy;
+								nearest = new LocatedMarket(region.xs[i], region.ys[i]);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		return Optional.ofNullable(nearest);
+	}
+
+	/**
+	 * Indexes the chunk the first time it is asked for
+	 */
+	private MarketIndexLayer.MarketRegion[] getUnseenMarkets(int chunkX, int chunkY) {
+		MarketIndexLayer.MarketRegion[] regions = marketIndex.get(chunkX, chunkY);
+		if (regions == null) {
+			regions = withoutSeen(marketLayer.getAt(seed, new GridPos(chunkX, chunkY)));
+			marketIndex.put(chunkX, chunkY, regions);
+		}
+		return regions;
+	}
+
+	private MarketIndexLayer.MarketRegion[] withoutSeen(MarketIndexLayer.MarketRegion[] regions) {
+		MarketIndexLayer.MarketRegion[] unseen = new MarketIndexLayer.MarketRegion[regions.length];
+		int count = 0;
+		for (MarketIndexLayer.MarketRegion region : regions) {
+			// Regions are connected, and markMarketAsSeen marks whole connected
+			// markets, so a region is either entirely seen or not at all
+			if (!seenMarketTiles.contains(region.xs[0], region.ys[0]))
+				unseen[count++] = region;
+		}
+		return count == regions.length ? regions : Arrays.copyOf(unseen, count);
+	}
+
+	/**
+	 * Marks the market this cell is part of, and the ones touching it, as seen.
+	 * Called every tick with the cell of the cook car: other cells aren't
+	 * added, so that the set only grows with market tiles.
+	 */
+	public void markMarketAsSeen(int gridX, int gridY) {
+		synchronized (seenMarketTiles) {
+			if (markets.getMaskAt(seed, gridX, gridY)) {
+				markSeen(gridX, gridY);
+			} else {
+				markSeenIfMarket(gridX, gridY - 1);
+				markSeenIfMarket(gridX + 1, gridY);
+				markSeenIfMarket(gridX, gridY + 1);
+				markSeenIfMarket(gridX - 1, gridY);
 			}
 		}
 	}
 
+	private void markSeen(int gridX, int gridY) {
+		if (seenMarketTiles.add(gridX, gridY)) {
+			// The region of this tile, if indexed, is seen now
+			int chunkX = gridX >> CHUNK_SIZE_LOG, chunkY = gridY >> CHUNK_SIZE_LOG;
+			MarketIndexLayer.MarketRegion[] regions = marketIndex.get(chunkX, chunkY);
+			if (regions != null && regions.length > 0)
+				marketIndex.put(chunkX, chunkY, withoutSeen(regions));
+			nearestMarket = null;
+
+			markSeenIfMarket(gridX, gridY - 1);
+			markSeenIfMarket(gridX + 1, gridY);
+			markSeenIfMarket(gridX, gridY + 1);
+			markSeenIfMarket(gridX - 1, gridY);
+		}
+	}
+
+	private void markSeenIfMarket(int gridX, int gridY) {
+		if (!seenMarketTiles.contains(gridX, gridY) && markets.getMaskAt(seed, gridX, gridY))
+			markSeen(gridX, gridY);
+	}
+
 	public static class LocatedMarket {
 		public final int x, y;
 